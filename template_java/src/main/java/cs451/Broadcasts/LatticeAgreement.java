@@ -2,89 +2,159 @@ package cs451.Broadcasts;
 
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import cs451.Constants;
 import cs451.Host;
 import cs451.Receiver;
+import cs451.Idle.IdleStrategy;
 import cs451.Messages.Message;
 import cs451.Messages.Message.EchoAck;
 import cs451.Messages.Message.PayloadType;
+import cs451.Messages.ValueSet;
 import cs451.Parsers.ConfigParser.LatticeConfig;
 import cs451.States.AgreementState;
+import cs451.States.AgreementTable;
 import cs451.States.LatticeState;
 import cs451.States.LatticeStateGiver;
 import cs451.States.PlState;
 import cs451.States.PlStateGiver;
+import cs451.States.WindowController;
 
 public class LatticeAgreement implements PlStateGiver, LatticeStateGiver, Deliverable, Runnable {
     private final short myId;
     private final Map<Short, Host> hostsMap;
-    private final ConcurrentSkipListMap<Integer, AgreementState> agreements;
+    private final AgreementTable agreements;
     private final ConcurrentLinkedQueue<Message> toBroadcast;
     private final ConcurrentLinkedQueue<Message> toDeliver;
     private final AtomicInteger windowSize;
-    private final AtomicInteger windowBottom;
+    // signalled when the window can take a new proposal, when there is something to broadcast and when there is
+    // something to deliver, owned by the proposing thread, the sender lattice and the receiver lattice
+    private final IdleStrategy proposeIdle;
+    private final IdleStrategy broadcastIdle;
+    private final IdleStrategy deliverIdle;
+    // number of agreements we may have in flight
+    private final WindowController window;
+    // idle strategy of the thread running this lattice
+    private final IdleStrategy idle;
     private final PerfectLink pl;
     private final ActorType type;
     private final Receiver parent;
+    // handle the receiver lattice messages sharded by agreement, null when the receiver lattice thread does
+    private final Worker[] workers;
+    private final List<Thread> workerThreads;
+    // last time we looked for agreements to propose again, in nanoseconds
+    private long staleCheckAt;
 
     public LatticeAgreement(short myId, Map<Short, Host> hostsMap, LatticeConfig config)
             throws SocketException, UnknownHostException {
+        this(myId, hostsMap, config, AgreementTable.retiredSlotsFor(ValueSet.domainFor(config.getDs())));
+    }
+
+    /**
+     * @param retiredSlots : number of retired agreements whose whole state is kept
+     */
+    public LatticeAgreement(short myId, Map<Short, Host> hostsMap, LatticeConfig config, int retiredSlots)
+            throws SocketException, UnknownHostException {
         this.myId = myId;
         this.hostsMap = hostsMap;
-        this.agreements = new ConcurrentSkipListMap<>();
         this.windowSize = new AtomicInteger(0);
-        this.windowBottom = new AtomicInteger(0);
+        this.agreements = new AgreementTable(Constants.LATTICE_AGREEMENT_SLOTS, retiredSlots,
+                ValueSet.domainFor(config.getDs()), windowSize);
         this.toBroadcast = new ConcurrentLinkedQueue<>();
-        this.pl = new PerfectLink(myId, hostsMap, config);
+        this.window = new WindowController();
+        this.pl = new PerfectLink(myId, hostsMap, config, window);
         this.type = ActorType.SENDER;
         this.toDeliver = new ConcurrentLinkedQueue<>();
+        this.proposeIdle = Constants.IDLE_STRATEGY.create();
+        this.broadcastIdle = Constants.IDLE_STRATEGY.create();
+        this.deliverIdle = Constants.IDLE_STRATEGY.create();
+        this.idle = broadcastIdle;
         this.parent = null;
+        this.workers = null;
+        this.workerThreads = new ArrayList<>();
+        this.staleCheckAt = System.nanoTime();
     }
 
     public LatticeAgreement(short myId, Map<Short, Host> hostsMap, Receiver parent, LatticeConfig config,
             LatticeState latticeState,
             PlState plState) {
+        this(myId, hostsMap, parent, config, latticeState, plState, Constants.LATTICE_RECEIVER_WORKERS);
+    }
+
+    /**
+     * @param nbWorkers : number of threads handling the messages, the receiver lattice thread handles them
+     *                  itself if there is only one
+     */
+    public LatticeAgreement(short myId, Map<Short, Host> hostsMap, Receiver parent, LatticeConfig config,
+            LatticeState latticeState, PlState plState, int nbWorkers) {
         this.myId = myId;
         this.hostsMap = hostsMap;
         this.agreements = latticeState.getAgreements();
         this.windowSize = latticeState.getWindowSize();
-        this.windowBottom = latticeState.getWindowBottom();
         this.toBroadcast = latticeState.getToBroadcast();
         this.toDeliver = latticeState.getToDeliver();
+        this.proposeIdle = latticeState.getProposeIdle();
+        this.broadcastIdle = latticeState.getBroadcastIdle();
+        this.deliverIdle = latticeState.getDeliverIdle();
+        this.window = latticeState.getWindow();
+        this.idle = deliverIdle;
         this.pl = new PerfectLink(myId, hostsMap, this, config, plState);
         this.type = ActorType.RECEIVER;
         this.parent = parent;
+        if (nbWorkers > 1) {
+            this.workers = new Worker[nbWorkers];
+            for (int i = 0; i < workers.length; ++i) {
+                workers[i] = new Worker();
+            }
+        } else {
+            this.workers = null;
+        }
+        this.workerThreads = new ArrayList<>();
+        this.staleCheckAt = System.nanoTime();
     }
 
     public boolean propose(int agreementId, Set<Integer> values) {
         if (values == null) {
             throw new IllegalArgumentException("Cannot propose null values set");
         }
-        if (!agreements.containsKey(agreementId) && windowSize.get() > Constants.MAX_OUT_OF_ORDER_DELIVERY) {
-            // we cannot propose a new agreement for now : would increase window too much
+        if (!agreements.isLive(agreementId) && (windowSize.get() > window.getSize()
+                || agreementId - agreements.getBottom() >= Constants.LATTICE_MAX_AHEAD_OF_BOTTOM)) {
+            // we cannot propose a new agreement for now : would increase window too much, or the bottom waits
+            // for a late host to decide the oldest forgotten agreements
             return false;
         } else {
-            if (agreements.putIfAbsent(agreementId, new AgreementState(0, Collections.emptySet())) == null) {
-                // we add a new agreement in the pipeline
-                windowSize.incrementAndGet();
+            AgreementState ag = agreements.getOrAdd(agreementId, 0);
+            if (ag == null) {
+                throw new IllegalStateException("Cannot propose for an agreement every host already decided");
             }
-            synchronized (agreements) {
-                AgreementState ag = agreements.get(agreementId);
+            synchronized (ag) {
                 ag.setProposedValues(values);
+                ag.setProposedAt(System.nanoTime());
+                ag.setLastProposalAt(ag.getProposedAt());
                 ag.incrementActiveProposalNumber();
-                return toBroadcast.add(new Message(EchoAck.ECHO, myId, myId, agreementId,
-                        ag.getActiveProposalNumber(), PayloadType.PROPOSAL, values));
+                toBroadcast.add(nextProposal(agreementId, ag, true));
+                broadcastIdle.signal();
+                return true;
             }
         }
     }
 
+    /**
+     * Waits for the window to possibly take a new proposal, to be called by the proposing thread after
+     * {@link #propose(int, Set)} failed
+     */
+    public void waitToPropose() throws InterruptedException {
+        proposeIdle.idle(TimeUnit.MILLISECONDS.toNanos(Constants.SLEEP_BEFORE_NEXT_POLL));
+    }
+
     @Override
     public PlState getPlState() {
         return pl.getPlState();
@@ -96,11 +166,13 @@ public class LatticeAgreement implements PlStateGiver, LatticeStateGiver, Delive
             throw new IllegalArgumentException("Cannot deliver a null message");
         }
         toDeliver.add(m);
+        deliverIdle.signal();
     }
 
     @Override
     public LatticeState getLatticeState() {
-        return new LatticeState(agreements, windowSize, windowBottom, toBroadcast, toDeliver);
+        return new LatticeState(agreements, windowSize, toBroadcast, toDeliver, proposeIdle,
+                broadcastIdle, deliverIdle, window);
     }
 
     @Override
@@ -114,6 +186,7 @@ public class LatticeAgreement implements PlStateGiver, LatticeStateGiver, Delive
                 }
 
             } else if (type == ActorType.RECEIVER) {
+                startWorkers();
                 while (true) {
                     runReceiverLattice();
                 }
@@ -123,120 +196,358 @@ public class LatticeAgreement implements PlStateGiver, LatticeStateGiver, Delive
         } catch (InterruptedException e) {
             System.err.println("Interrupted " + type.name() + " LatticeAgreement");
             plThread.interrupt();
+            for (Thread worker : workerThreads) {
+                worker.interrupt();
+            }
             e.printStackTrace();
         }
 
     }
 
-    private void runSenderLattice() throws InterruptedException {
+    private void startWorkers() {
+        if (workers == null) {
+            return;
+        }
+        for (int i = 0; i < workers.length; ++i) {
+            Thread worker = new Thread(workers[i], "Host " + myId + " Lattice Worker " + i);
+            workerThreads.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Broadcasts the next message to send, or waits for one
+     */
+    public void runSenderLattice() throws InterruptedException {
         Message mToSend = toBroadcast.poll();
         if (mToSend == null) {
-            Thread.sleep(Constants.SLEEP_BEFORE_NEXT_POLL);
+            idle.idle(TimeUnit.MILLISECONDS.toNanos(Constants.SLEEP_BEFORE_NEXT_POLL));
         } else {
-            for (short dest : hostsMap.keySet()) {
-                while (!pl.addToSend(mToSend, dest)) {
-                    Thread.sleep(Constants.SLEEP_BEFORE_NEXT_POLL);
-                }
-            }
+            idle.reset();
+            broadcast(mToSend);
+        }
+    }
+
+    /**
+     * Sends the message to the destination, messages to ourselves are directly delivered to the receiver
+     * lattice without going through the network
+     */
+    private void send(Message m, short dest, IdleStrategy waitIdle) throws InterruptedException {
+        if (dest == myId) {
+            deliver(m);
+            return;
+        }
+        while (!pl.addToSend(m, dest)) {
+            waitIdle.idle(TimeUnit.MILLISECONDS.toNanos(Constants.PL_QUEUE_FULL_RETRY));
+        }
+    }
+
+    /**
+     * Sends the message to every host, including ourselves through the local delivery
+     */
+    private void broadcast(Message m) throws InterruptedException {
+        while (!pl.broadcast(m)) {
+            idle.idle(TimeUnit.MILLISECONDS.toNanos(Constants.PL_QUEUE_FULL_RETRY));
+        }
+        deliver(m);
+    }
+
+    /**
+     * Builds the proposal for the active proposal number of the agreement, re-proposals only carrying the
+     * values added since the previous proposal in delta mode
+     */
+    private Message nextProposal(int agreementId, AgreementState ag, boolean first) {
+        ValueSet proposal = ag.getProposedValues();
+        ValueSet values = proposal;
+        PayloadType type = PayloadType.PROPOSAL;
+        if (Constants.LATTICE_DELTA_MESSAGES && !first) {
+            // the proposed values only grow, acceptors get them back from the previous proposal
+            values = proposal.minus(ag.getSentProposal());
+            type = PayloadType.PROPOSAL_DELTA;
+        }
+        ag.setSentProposal(proposal);
+        return new Message(EchoAck.ECHO, myId, myId, agreementId, ag.getActiveProposalNumber(), type, values);
+    }
+
+    /**
+     * Gives the whole proposal carried by a proposal message, or null if it cannot be handled : the proposal
+     * is outdated, or it is a delta re-proposal following a proposal we did not receive yet, in which case we
+     * ask the proposer for the whole proposal
+     */
+    private ValueSet receivedProposal(Message m, AgreementState ag, IdleStrategy waitIdle)
+            throws InterruptedException {
+        if (m.getPayloadType() == PayloadType.PROPOSAL) {
+            ag.recordProposal(m.getSourceId(), m.getActivePropNumber(), m.getValues());
+            return m.getValues();
+        }
+        int lastNumber = ag.getReceivedProposalNumber(m.getSourceId());
+        if (lastNumber == m.getActivePropNumber() - 1) {
+            return ag.rebuildProposal(m.getSourceId(), m.getActivePropNumber(), m.getValues());
+        } else if (lastNumber < m.getActivePropNumber()) {
+            send(new Message(EchoAck.ECHO, myId, myId, m.getAgreementId(), m.getActivePropNumber(),
+                    PayloadType.RESEND, null), m.getSourceId(), waitIdle);
         }
+        return null;
     }
 
-    private void runReceiverLattice() throws InterruptedException {
+    /**
+     * Handles the next delivered message, or waits for one
+     */
+    public void runReceiverLattice() throws InterruptedException {
+        reproposeStale();
         Message m = toDeliver.poll();
         if (m == null) {
-            Thread.sleep(Constants.SLEEP_BEFORE_NEXT_POLL);
+            idle.idle(TimeUnit.MILLISECONDS.toNanos(Constants.SLEEP_BEFORE_NEXT_POLL));
+        } else {
+            idle.reset();
+            if (workers == null) {
+                handle(m, idle);
+            } else {
+                workers[Math.floorMod(m.getAgreementId(), workers.length)].dispatch(m);
+            }
+        }
+    }
+
+    /**
+     * Retires the lowest agreement once we and a majority of hosts decided it, so that crashed hosts do not
+     * stop the window from moving on. Its retired state keeps answering the proposals of late hosts until it
+     * is forgotten to make room for a newer one. Retires all the agreements that can be, since the workers may
+     * have handled the last messages of the ones above before the lowest one could be retired.
+     */
+    private void collectDecided() {
+        boolean retired = false;
+        while (agreements.retireBottom(hostsMap.size() / 2, this::decidedByAwaited)) {
+            retired = true;
+        }
+        if (retired) {
+            pl.forgetBefore(agreements.getBottom() - agreements.getRetiredSlots());
+            proposeIdle.signal();
+        }
+    }
+
+    /**
+     * Tells whether every host which may still need our answers for a forgotten agreement decided it, the hosts
+     * we did not hear from for a while are not waited for
+     */
+    private boolean decidedByAwaited(BitSet decidedBy) {
+        long now = System.currentTimeMillis();
+        for (short host : hostsMap.keySet()) {
+            if (host != myId && !decidedBy.get(host) && !pl.isSuspected(host, now)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Proposes again the agreements we did not decide for a while, with a new proposal number : the answers to
+     * our proposal may have been dropped while we were suspected, and the acceptors answer a new proposal even
+     * for agreements they forgot
+     */
+    private void reproposeStale() {
+        long now = System.nanoTime();
+        long timeout = TimeUnit.MILLISECONDS.toNanos(Constants.LATTICE_REPROPOSE_TIMEOUT);
+        if (now - staleCheckAt < timeout / 2) {
+            return;
+        }
+        staleCheckAt = now;
+        boolean[] reproposed = { false };
+        agreements.forEachLive(ag -> {
+            synchronized (ag) {
+                if (ag.getActive() && ag.getProposedAt() != 0 && now - ag.getLastProposalAt() > timeout) {
+                    ag.incrementActiveProposalNumber();
+                    ag.resetAckCount();
+                    ag.resetNackCount();
+                    ag.setLastProposalAt(now);
+                    // a whole proposal, the acceptors may have lost the previous one
+                    toBroadcast.add(nextProposal(ag.getAgreementId(), ag, true));
+                    reproposed[0] = true;
+                }
+            }
+        });
+        if (reproposed[0]) {
+            broadcastIdle.signal();
+        }
+    }
+
+    /**
+     * Answers a proposal for an agreement we forgot, from its recorded accepted values. A delta re-proposal
+     * cannot be rebuilt without the previous proposal, which was forgotten with the agreement, so we ask for
+     * the whole proposal. The decisions of late hosts are recorded until they all decided.
+     */
+    private void answerForgotten(Message m, IdleStrategy waitIdle) throws InterruptedException {
+        if (m.getPayloadType() == PayloadType.DECIDED) {
+            agreements.decidedForgotten(m.getAgreementId(), m.getSourceId());
+            return;
+        }
+        if (m.getPayloadType() == PayloadType.PROPOSAL_DELTA) {
+            send(new Message(EchoAck.ECHO, myId, myId, m.getAgreementId(), m.getActivePropNumber(),
+                    PayloadType.RESEND, null), m.getSourceId(), waitIdle);
+            return;
+        }
+        if (m.getPayloadType() != PayloadType.PROPOSAL) {
+            return;
+        }
+        ValueSet proposal = m.getValues();
+        ValueSet accepted = agreements.acceptForgotten(m.getAgreementId(), proposal);
+        if (accepted == null) {
+            System.err.println("Dropping a proposal for agreement " + m.getAgreementId() + " of host "
+                    + m.getSourceId() + " : its record was dropped once the hosts we hear from decided it");
+        } else if (proposal.containsAllValues(accepted)) {
+            send(new Message(EchoAck.ECHO, myId, myId, m.getAgreementId(), m.getActivePropNumber(),
+                    PayloadType.ACK, null), m.getSourceId(), waitIdle);
         } else {
-            int mAgreementId = m.getAgreementId();
-            if (windowBottom.get() > mAgreementId) {
-                // we moved on from this agreement
+            send(new Message(EchoAck.ECHO, myId, myId, m.getAgreementId(), m.getActivePropNumber(),
+                    PayloadType.NACK, Constants.LATTICE_DELTA_MESSAGES ? accepted.minus(proposal) : accepted),
+                    m.getSourceId(), waitIdle);
+        }
+    }
+
+    /**
+     * Handles a message of the receiver lattice, under the lock of its agreement only so that messages of
+     * different agreements can be handled in parallel
+     * 
+     * @param waitIdle : idle strategy of the calling thread, to wait for room in the PL queue
+     */
+    private void handle(Message m, IdleStrategy waitIdle) throws InterruptedException {
+        int mAgreementId = m.getAgreementId();
+        PayloadType payloadType = m.getPayloadType();
+        if (agreements.getBottom() > mAgreementId && payloadType != PayloadType.PROPOSAL
+                && payloadType != PayloadType.PROPOSAL_DELTA && payloadType != PayloadType.DECIDED) {
+            // we moved on from this agreement, we only answer the proposals of late hosts and record their
+            // decisions
+            return;
+        }
+        AgreementState ag;
+        if (payloadType == PayloadType.DECIDED || payloadType == PayloadType.PROPOSAL
+                || payloadType == PayloadType.PROPOSAL_DELTA) {
+            ag = agreements.getOrAdd(mAgreementId, m.getActivePropNumber());
+            if (ag == null) {
+                answerForgotten(m, waitIdle);
                 return;
             }
-            synchronized (agreements) {
-                AgreementState ag = agreements.get(mAgreementId);
-                if (m.getPayloadType() == PayloadType.ACK) {
-                    if (!agreements.containsKey(mAgreementId)) {
-                        System.err
-                                .println("Should not receive an ACK for a message not in agreements : " + mAgreementId);
-                        return;
-                    }
-                    // we increment ack count if the received ack is for the actual proposal number
-                    if (ag.getActiveProposalNumber() == m.getActivePropNumber()) {
-                        ag.incrementAckCount();
-                    }
-                } else if (m.getPayloadType() == PayloadType.NACK) {
-                    if (!agreements.containsKey(mAgreementId)) {
-                        System.err
-                                .println("Should not receive a NACK for a message not in agreements : " + mAgreementId);
-                        return;
-                    }
-                    // we increment nack count if the received nack is for the actual proposal
-                    // number
-                    // we update the proposed values set accordingly
-                    if (ag.getActiveProposalNumber() == m.getActivePropNumber()) {
-                        ag.unionProposedValues(m.getValues());
-                        ag.incrementNackCount();
-                    }
-                } else if (m.getPayloadType() == PayloadType.DECIDED) {
-                    if (agreements.putIfAbsent(mAgreementId,
-                            new AgreementState(m.getActivePropNumber(), Collections.emptySet())) == null) {
-                        // we add a new agreement in the pipeline
-                        windowSize.incrementAndGet();
-                    }
-                    ag = agreements.get(mAgreementId);
-                    ag.incrementDecidedCount();
-                } else if (m.getPayloadType() == PayloadType.PROPOSAL) {
-                    if (agreements.putIfAbsent(mAgreementId,
-                            new AgreementState(m.getActivePropNumber(), Collections.emptySet())) == null) {
-                        // we add a new agreement in the pipeline
-                        windowSize.incrementAndGet();
-                    }
-                    ag = agreements.get(mAgreementId);
-                    // either accepted_values ⊆ proposed_values or not
-                    if (ag.acceptedValuesIn(m.getValues())) {
-                        ag.setAcceptedValues(m.getValues());
-                        while (!pl.addToSend(
-                                new Message(EchoAck.ECHO, myId, myId, mAgreementId, m.getActivePropNumber(),
-                                        PayloadType.ACK,
-                                        null),
-                                m.getSourceId())) {
-                            Thread.sleep(Constants.SLEEP_BEFORE_NEXT_POLL);
-                        }
-                    } else {
-                        ag.unionAcceptedValues(m.getValues());
-                        while (!pl.addToSend(
-                                new Message(EchoAck.ECHO, myId, myId, mAgreementId, m.getActivePropNumber(),
-                                        PayloadType.NACK,
-                                        ag.getAcceptedValues()),
-                                m.getSourceId())) {
-                            Thread.sleep(Constants.SLEEP_BEFORE_NEXT_POLL);
-                        }
-                    }
-                } else {
-                    throw new IllegalStateException("Cannot identify message payload type");
+        } else {
+            ag = agreements.get(mAgreementId);
+            if (ag == null) {
+                if (agreements.getBottom() <= mAgreementId) {
+                    System.err.println("Should not receive a " + payloadType + " for a message not in agreements : "
+                            + mAgreementId);
                 }
-                if (ag.getActive()) {
-                    if (ag.getNackCount() > 0 && ag.getAckCount() + ag.getNackCount() > hostsMap.size() / 2) {
-                        ag.incrementActiveProposalNumber();
-                        ag.resetAckCount();
-                        ag.resetNackCount();
-                        toBroadcast
-                                .add(new Message(EchoAck.ECHO, myId, myId, mAgreementId, ag.getActiveProposalNumber(),
-                                        PayloadType.PROPOSAL, ag.getProposedValues()));
-                    }
-                    if (ag.getAckCount() > hostsMap.size() / 2) {
-                        parent.deliver(mAgreementId, ag.getProposedValues());
-                        ag.deactivate();
-                        windowSize.decrementAndGet();
-                        toBroadcast.add(new Message(EchoAck.ECHO, myId, myId, mAgreementId,
-                                ag.getActiveProposalNumber(), PayloadType.DECIDED, null));
-                    }
+                return;
+            }
+        }
+        boolean forgotten;
+        synchronized (ag) {
+            // the state may have been forgotten, and recycled for a newer agreement, meanwhile
+            forgotten = ag.getAgreementId() != mAgreementId;
+            if (!forgotten) {
+                handleLocked(m, ag, waitIdle);
+            }
+        }
+        if (forgotten) {
+            answerForgotten(m, waitIdle);
+            return;
+        }
+        collectDecided();
+    }
+
+    /**
+     * Handles the message under the lock of the state of its agreement
+     */
+    private void handleLocked(Message m, AgreementState ag, IdleStrategy waitIdle) throws InterruptedException {
+        int mAgreementId = m.getAgreementId();
+        PayloadType payloadType = m.getPayloadType();
+        if (payloadType == PayloadType.ACK) {
+            // we increment ack count if the received ack is for the actual proposal number
+            if (ag.getActiveProposalNumber() == m.getActivePropNumber()) {
+                ag.incrementAckCount();
+            }
+        } else if (payloadType == PayloadType.NACK) {
+            // we increment nack count if the received nack is for the actual proposal
+            // number
+            // we update the proposed values set accordingly, unless we already decided it
+            if (ag.getActive() && ag.getActiveProposalNumber() == m.getActivePropNumber()) {
+                ag.unionProposedValues(m.getValues());
+                ag.incrementNackCount();
+            }
+        } else if (payloadType == PayloadType.DECIDED) {
+            // a host may tell it again, once it was suspected
+            ag.decidedBy(m.getSourceId());
+        } else if (payloadType == PayloadType.RESEND) {
+            // an acceptor missed our previous proposal, it only needs the whole proposal if still useful
+            if (ag.getActive() && ag.getActiveProposalNumber() == m.getActivePropNumber()) {
+                send(new Message(EchoAck.ECHO, myId, myId, mAgreementId, m.getActivePropNumber(),
+                        PayloadType.PROPOSAL, ag.getSentProposal()), m.getSenderId(), waitIdle);
+            }
+        } else if (payloadType == PayloadType.PROPOSAL || payloadType == PayloadType.PROPOSAL_DELTA) {
+            ValueSet proposal = receivedProposal(m, ag, waitIdle);
+            // either accepted_values ⊆ proposed_values or not
+            if (proposal != null && ag.acceptedValuesIn(proposal)) {
+                ag.setAcceptedValues(proposal);
+                send(new Message(EchoAck.ECHO, myId, myId, mAgreementId, m.getActivePropNumber(),
+                        PayloadType.ACK, null), m.getSourceId(), waitIdle);
+            } else if (proposal != null) {
+                ag.unionAcceptedValues(proposal);
+                ValueSet nackValues = ag.getAcceptedValues();
+                if (Constants.LATTICE_DELTA_MESSAGES) {
+                    // the proposer only lacks the accepted values which were not in its proposal
+                    nackValues = nackValues.minus(proposal);
                 }
-                if (agreements.firstKey() == windowBottom.get()
-                        && agreements.firstEntry().getValue().getDecidedCount() >= hostsMap.size()) {
-                    windowBottom.incrementAndGet();
-                    pl.flush(agreements.firstKey());
-                    agreements.remove(agreements.firstKey());
+                send(new Message(EchoAck.ECHO, myId, myId, mAgreementId, m.getActivePropNumber(),
+                        PayloadType.NACK, nackValues), m.getSourceId(), waitIdle);
+            }
+        } else {
+            throw new IllegalStateException("Cannot identify message payload type");
+        }
+        if (ag.getActive()) {
+            if (ag.getNackCount() > 0 && ag.getAckCount() + ag.getNackCount() > hostsMap.size() / 2) {
+                ag.incrementActiveProposalNumber();
+                ag.resetAckCount();
+                ag.resetNackCount();
+                ag.setLastProposalAt(System.nanoTime());
+                toBroadcast.add(nextProposal(mAgreementId, ag, false));
+                broadcastIdle.signal();
+            }
+            if (ag.getAckCount() > hostsMap.size() / 2) {
+                parent.deliver(mAgreementId, ag.getProposedValues());
+                ag.deactivate();
+                window.decided(System.nanoTime() - ag.getProposedAt());
+                windowSize.decrementAndGet();
+                proposeIdle.signal();
+                toBroadcast.add(new Message(EchoAck.ECHO, myId, myId, mAgreementId,
+                        ag.getActiveProposalNumber(), PayloadType.DECIDED, null));
+                broadcastIdle.signal();
+            }
+        }
+    }
+
+    /**
+     * Handles the messages of the agreements sharded onto it, in its own thread
+     */
+    private class Worker implements Runnable {
+        private final ConcurrentLinkedQueue<Message> queue = new ConcurrentLinkedQueue<>();
+        private final IdleStrategy workerIdle = Constants.IDLE_STRATEGY.create();
+
+        void dispatch(Message m) {
+            queue.add(m);
+            workerIdle.signal();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Message m = queue.poll();
+                    if (m == null) {
+                        workerIdle.idle(TimeUnit.MILLISECONDS.toNanos(Constants.SLEEP_BEFORE_NEXT_POLL));
+                    } else {
+                        workerIdle.reset();
+                        handle(m, workerIdle);
+                    }
                 }
+            } catch (InterruptedException e) {
+                System.err.println("Interrupted lattice worker");
+                e.printStackTrace();
             }
         }
     }
@@ -1,63 +1,125 @@
 package cs451.Broadcasts;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.SocketException;
-import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import cs451.Host;
-import cs451.Messages.ConcurrentLowMemoryMsgSet;
+import cs451.Idle.IdleStrategy;
+import cs451.Messages.BufferPool;
+import cs451.Messages.DatagramBatch;
+import cs451.Messages.DatagramBatch.FrameType;
 import cs451.Messages.Message;
+import cs451.Messages.Message.EchoAck;
+import cs451.Messages.Message.PayloadType;
 import cs451.Messages.MessageToBeSent;
+import cs451.Messages.SeqWindow;
+import cs451.Messages.SerializedMessage;
+import cs451.Messages.TimerWheel;
+import cs451.Messages.ValueSet;
 import cs451.Parsers.ConfigParser.LatticeConfig;
+import cs451.States.PeerState;
 import cs451.States.PlState;
 import cs451.States.PlStateGiver;
+import cs451.States.WindowController;
 import cs451.Constants;
 
-import java.net.DatagramSocket;
 import java.io.Closeable;
 import java.io.IOException;
-import java.net.DatagramPacket;
 
 public class PerfectLink implements Closeable, PlStateGiver, Runnable {
-    private final DatagramSocket socket;
+    private final DatagramChannel channel;
+    private final Selector selector;
     private final short myId;
     private final Map<Short, Host> hostsMap;
     private final ActorType type;
     private final Deliverable parent;
-    private final ConcurrentLowMemoryMsgSet delivered;
-    private final ConcurrentLowMemoryMsgSet acked;
+    private final PeerState[] peers;
     private final ConcurrentLinkedQueue<MessageToBeSent> toSend;
-    private final ConcurrentHashMap.KeySetView<MessageToBeSent, Boolean> toRetry;
-    private long timeoutBeforeResend = Constants.PL_TIMEOUT_BEFORE_RESEND;
-    private long lastTimeoutUpdate = System.currentTimeMillis();
+    private final BufferPool bufferPool;
+    // owned by the sender PL, signalled whenever there is something new to send
+    private final IdleStrategy senderIdle;
+    private final TimerWheel toRetry;
+    private final List<MessageToBeSent> expired;
     private final int ds;
+    private final ByteBuffer receiveBuffer;
+    // told about the transmissions of the sender, null for a receiver
+    private final WindowController window;
+    // agreements below it were forgotten by the lattice, the sender drops the messages about them it did not
+    // send yet and no peer needs anymore, up to purgedBefore
+    private final AtomicInteger forgottenBefore;
+    private int purgedBefore;
 
     /**
      * Constructor for a perfect link belonging to a sender
      */
     public PerfectLink(short myId, Map<Short, Host> hostsMap, LatticeConfig config)
             throws SocketException, UnknownHostException {
-        if (hostsMap == null || config == null) {
+        this(myId, hostsMap, config, new WindowController());
+    }
+
+    /**
+     * Constructor for a perfect link belonging to a sender, reporting its transmissions to the lattice window
+     */
+    public PerfectLink(short myId, Map<Short, Host> hostsMap, LatticeConfig config, WindowController window)
+            throws SocketException, UnknownHostException {
+        if (hostsMap == null || config == null || window == null) {
             throw new IllegalArgumentException("A sender cannot have null self host or hosts map");
         }
         this.myId = myId;
         this.hostsMap = hostsMap;
         Host thisHost = this.hostsMap.get(myId);
         InetAddress thisHostIp = InetAddress.getByName(thisHost.getIp());
-        this.socket = new DatagramSocket(thisHost.getPort(), thisHostIp);
-        this.socket.setSoTimeout(Constants.SOCKET_TIMEOUT);
-        this.acked = new ConcurrentLowMemoryMsgSet(config.getP(), config.getVs());
+        try {
+            // the channel is non blocking : the receiver waits on the selector for datagrams instead of
+            // polling the socket with a timeout
+            this.channel = DatagramChannel.open();
+            this.channel.bind(new InetSocketAddress(thisHostIp, thisHost.getPort()));
+            this.channel.configureBlocking(false);
+            this.selector = Selector.open();
+            this.channel.register(selector, SelectionKey.OP_READ);
+        } catch (SocketException e) {
+            throw e;
+        } catch (IOException e) {
+            SocketException se = new SocketException("Could not open the PL channel");
+            se.initCause(e);
+            throw se;
+        }
         this.type = ActorType.SENDER;
         this.toSend = new ConcurrentLinkedQueue<>();
-        this.toRetry = ConcurrentHashMap.newKeySet(Constants.MAX_PL_QUEUE_SIZE);
         this.ds = config.getDs();
+        // messages are serialized in pooled buffers, given back once acknowledged
+        this.bufferPool = new BufferPool(Constants.PL_SMALL_BUFFER_SIZE, maxMsgSize(ds),
+                Constants.PL_MAX_POOLED_BUFFERS);
+        this.senderIdle = Constants.IDLE_STRATEGY.create();
+        this.forgottenBefore = new AtomicInteger(0);
+        this.purgedBefore = 0;
+        // a message is never scheduled further than the longest timeout
+        this.toRetry = new TimerWheel(Constants.PL_MAX_RTO + 1, System.currentTimeMillis());
+        this.expired = new ArrayList<>();
         this.parent = null;
-        this.delivered = null;
+        this.receiveBuffer = null;
+        this.window = window;
+        // host ids range from 1 to the number of hosts
+        this.peers = new PeerState[hostsMap.size() + 1];
+        for (short dest : hostsMap.keySet()) {
+            this.peers[dest] = new PeerState(dest, Constants.PL_MTU, maxMsgSize(ds), Constants.PL_WINDOW_SIZE,
+                    toRetry);
+        }
     }
 
     /**
@@ -71,32 +133,76 @@ public class PerfectLink implements Closeable, PlStateGiver, Runnable {
         }
         this.myId = myId;
         this.hostsMap = hostsMap;
-        this.socket = state.getPlSocket();
-        this.acked = state.getPlAcked();
+        this.channel = state.getPlChannel();
+        this.selector = state.getPlSelector();
+        this.peers = state.getPlPeers();
         this.toSend = state.getPlToSend();
-        this.delivered = new ConcurrentLowMemoryMsgSet(config.getP(), config.getVs());
+        this.bufferPool = state.getPlBufferPool();
+        this.senderIdle = state.getPlSenderIdle();
+        this.forgottenBefore = state.getPlForgottenBefore();
         this.parent = parent;
         this.type = ActorType.RECEIVER;
         this.ds = config.getDs();
         this.toRetry = null;
+        this.expired = null;
+        // we should only have sent datagrams not exceeding this size, messages are deserialized straight from
+        // this buffer
+        this.receiveBuffer = ByteBuffer.allocateDirect(DatagramBatch.maxDatagramSize(Constants.PL_MTU, maxMsgSize(ds)));
+        this.window = null;
+    }
+
+    private static int maxMsgSize(int ds) {
+        return Message.maxSerializedSize(ds);
     }
 
     public boolean addToSend(Message message, short dest) {
         if (message == null) {
             throw new IllegalArgumentException("Cannot send with null arguments");
         }
-        return toSend.size() > Constants.MAX_PL_QUEUE_SIZE ? false : toSend.add(message.toSendTo(dest, true));
+        if (toSend.size() > Constants.MAX_PL_QUEUE_SIZE) {
+            return false;
+        }
+        toSend.add(message.toSendTo(dest, bufferPool));
+        senderIdle.signal();
+        return true;
     }
 
-    public void flush(int agreementId) {
-        acked.flush(agreementId);
-        delivered.flush(agreementId);
+    /**
+     * Sends the message to every other host, serializing it once : the destinations share the serialized bytes,
+     * which go back to the pool once every destination acknowledged the message
+     */
+    public boolean broadcast(Message message) {
+        if (message == null) {
+            throw new IllegalArgumentException("Cannot broadcast a null message");
+        }
+        if (toSend.size() > Constants.MAX_PL_QUEUE_SIZE) {
+            return false;
+        }
+        if (hostsMap.size() == 1) {
+            return true;
+        }
+        SerializedMessage serialized = new SerializedMessage(message, bufferPool, hostsMap.size() - 1);
+        for (short dest : hostsMap.keySet()) {
+            if (dest != myId) {
+                toSend.add(new MessageToBeSent(message, dest, serialized));
+            }
+        }
+        senderIdle.signal();
+        return true;
     }
 
     @Override
     public void close() {
-        if (socket != null && !socket.isClosed()) {
-            socket.close();
+        try {
+            if (selector != null && selector.isOpen()) {
+                selector.close();
+            }
+            if (channel != null && channel.isOpen()) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error while closing the PL channel");
+            e.printStackTrace();
         }
     }
 
@@ -123,100 +229,276 @@ public class PerfectLink implements Closeable, PlStateGiver, Runnable {
 
     @Override
     public PlState getPlState() {
-        return new PlState(socket, acked, toSend);
+        return new PlState(channel, selector, peers, toSend, bufferPool, senderIdle, forgottenBefore);
+    }
+
+    /**
+     * Tells that we decided the agreements below the given one and forgot them : a crashed peer would otherwise
+     * keep the messages about them and their buffers forever
+     */
+    public void forgetBefore(int agreementId) {
+        forgottenBefore.accumulateAndGet(agreementId, Integer::max);
+    }
+
+    /**
+     * Tells whether we did not hear from the host for a while, never for ourselves
+     */
+    public boolean isSuspected(short host, long now) {
+        return host != myId && peers[host].isSuspected(now);
+    }
+
+    /**
+     * Drops the messages of forgotten agreements which the peers do not need : our proposals, which we do not
+     * need answers to anymore, and our decisions towards suspected peers, which are only remembered as a range
+     * of agreements to be told again once the peer is heard from. Our answers are kept until the peer decides,
+     * there are only as many as the proposals it sent before being suspected.
+     */
+    private void purgeForgotten(long now) {
+        int forgotten = forgottenBefore.get();
+        if (forgotten - purgedBefore < Constants.PL_PURGE_STEP) {
+            return;
+        }
+        for (short dest : hostsMap.keySet()) {
+            PeerState peer = peers[dest];
+            boolean suspected = peer.isSuspected(now);
+            peer.getWaiting().removeIf(m -> {
+                Message message = m.getMessage();
+                if (message.getAgreementId() >= forgotten) {
+                    return false;
+                }
+                PayloadType payloadType = message.getPayloadType();
+                if (payloadType == PayloadType.DECIDED && suspected) {
+                    peer.purgedDecision(message.getAgreementId());
+                } else if (payloadType != PayloadType.PROPOSAL && payloadType != PayloadType.PROPOSAL_DELTA) {
+                    return false;
+                }
+                m.getSerializedMsg().release();
+                return true;
+            });
+        }
+        purgedBefore = forgotten;
+    }
+
+    /**
+     * Tells the peer again the decisions dropped while it was suspected, once it is heard from, as many as its
+     * windows take after the messages waiting for it. It counts each host's decision once.
+     *
+     * @return true if a decision was sent
+     */
+    private boolean resendPurgedDecisions(PeerState peer, long now) {
+        boolean hasSent = false;
+        while (peer.hasPurgedDecisions() && !peer.isSuspected(now) && peer.getWaiting().isEmpty()
+                && peer.canSendNew()) {
+            Message decided = new Message(EchoAck.ECHO, myId, myId, peer.pollPurgedDecision(), 0,
+                    PayloadType.DECIDED, null);
+            addToBatch(decided.toSendTo(peer.getId(), bufferPool), now);
+            hasSent = true;
+        }
+        return hasSent;
     }
 
     public void runSenderPl() throws InterruptedException {
-        MessageToBeSent mToSend = toSend.poll();
-        if (mToSend != null) {
-            sendMessage(mToSend);
-            // we add to retry if not an ACK
-            if (!mToSend.getMessage().isAck()) {
-                mToSend.setTimeOfSending(System.currentTimeMillis());
-                mToSend.setTimeout(timeoutBeforeResend);
-                toRetry.add(mToSend);
+        long now = System.currentTimeMillis();
+        boolean hasSent = false;
+        // acknowledged messages were already cancelled, we only go through the ones that timed out
+        toRetry.expire(now, expired);
+        purgeForgotten(now);
+        // messages waiting for the peer's window are sent first, in order
+        for (short dest : hostsMap.keySet()) {
+            PeerState peer = peers[dest];
+            while (!peer.getWaiting().isEmpty() && peer.canSendNew()) {
+                addToBatch(peer.getWaiting().poll(), now);
+                hasSent = true;
             }
-        } else {
-            Thread.sleep(Constants.SLEEP_BEFORE_NEXT_POLL);
+            hasSent |= resendPurgedDecisions(peer, now);
         }
-        long now = System.currentTimeMillis();
-        final AtomicInteger retried = new AtomicInteger(0);
-        int toRetrySize = toRetry.size();
-        toRetry.removeIf(m -> {
-            if (acked.contains(m)) {
-                return true;
-            } else if ((now - m.getTimeOfSending()) > m.getTimeout()) {
-                toSend.add(m);
-                retried.incrementAndGet();
-                return true;
+        // we pack every pending message in the datagram of its destination
+        MessageToBeSent mToSend = toSend.poll();
+        while (mToSend != null) {
+            PeerState peer = peers[mToSend.getDest()];
+            if (mToSend.getSeq() < 0 && (!peer.getWaiting().isEmpty() || !peer.canSendNew())) {
+                // the peer cannot take more messages for now
+                peer.getWaiting().add(mToSend);
             } else {
-                return false;
+                addToBatch(mToSend, now);
+                hasSent = true;
+            }
+            mToSend = toSend.poll();
+        }
+        for (MessageToBeSent m : expired) {
+            PeerState peer = peers[m.getDest()];
+            if (!peer.getAcked().contains(m.getSeq())) {
+                // a timeout is the loss signal of the congestion window
+                peer.lost(m.getTimeOfSending(), now);
+                addToBatch(m, now);
+                hasSent = true;
             }
-        });
-        if (retried.get() > toRetrySize / 4 && (now - lastTimeoutUpdate) > timeoutBeforeResend) {
-            timeoutBeforeResend <<= 1;
-            lastTimeoutUpdate = now;
-            System.out.println("Changed Timeout to " + timeoutBeforeResend);
+        }
+        expired.clear();
+        long nextWakeUp = Long.min(toRetry.nextDeadline(), now + Constants.SLEEP_BEFORE_NEXT_POLL);
+        for (short dest : hostsMap.keySet()) {
+            PeerState peer = peers[dest];
+            DatagramBatch batch = peer.getBatch();
+            long ackPendingSince = peer.getAckPendingSince();
+            if (!batch.isEmpty()) {
+                // batches only linger for a bounded time waiting for more messages to the same destination
+                if (now - batch.getFirstAdded() >= Constants.PL_BATCH_LINGER) {
+                    sendBatch(peer);
+                } else {
+                    nextWakeUp = Long.min(nextWakeUp, batch.getFirstAdded() + Constants.PL_BATCH_LINGER);
+                }
+            } else if (ackPendingSince != 0) {
+                // nothing to piggyback the ACK on
+                if (now - ackPendingSince >= Constants.PL_ACK_DELAY) {
+                    sendBatch(peer);
+                } else {
+                    nextWakeUp = Long.min(nextWakeUp, ackPendingSince + Constants.PL_ACK_DELAY);
+                }
+            }
+        }
+        if (!hasSent && toSend.isEmpty()) {
+            // nothing to send : we wake up when signalled or when the next retransmission, batch or ACK is due
+            senderIdle.idle(TimeUnit.MILLISECONDS.toNanos(Long.max(nextWakeUp - now, 1)));
+        } else {
+            senderIdle.reset();
         }
     }
 
-    public void runReceiverPl() {
+    public void runReceiverPl() throws InterruptedException {
         receiveAndDeliver();
     }
 
-    private void receiveAndDeliver() {
+    private void receiveAndDeliver() throws InterruptedException {
         if (type != ActorType.RECEIVER) {
             throw new IllegalStateException("Sender cannot deliver messages");
         }
-        Message m = receiveMessage();
-        if (m != null && !(delivered.contains(m.toSendTo(myId, false))) && !m.isAck()) {
-            parent.deliver(m);
-            delivered.add(m.toSendTo(myId, false));
+        if (!receiveDatagram()) {
+            return;
+        }
+        try {
+            // a datagram packs one or more frames of the same sender
+            while (receiveBuffer.hasRemaining()) {
+                FrameType frameType = FrameType.fromByte(receiveBuffer.get());
+                if (frameType == FrameType.ACK) {
+                    // a single ACK frame acknowledges every message received by the peer
+                    PeerState peer = getPeer(receiveBuffer.getShort());
+                    peer.heardFrom(System.currentTimeMillis());
+                    peer.receiveAck(receiveBuffer, System.nanoTime());
+                } else {
+                    int seq = receiveBuffer.getInt();
+                    PeerState peer = getPeer(Message.peekSenderId(receiveBuffer));
+                    peer.heardFrom(System.currentTimeMillis());
+                    SeqWindow received = peer.getReceived();
+                    if (!received.inWindow(seq)) {
+                        // too far ahead to be acknowledged, the peer will send it again
+                        Message.skip(receiveBuffer);
+                        continue;
+                    }
+                    peer.ackNeeded(System.currentTimeMillis());
+                    // the window of the sequence numbers received from the peer is enough to deliver only once
+                    if (received.add(seq)) {
+                        parent.deliver(Message.deserialize(receiveBuffer, ValueSet.domainFor(ds)));
+                    } else {
+                        Message.skip(receiveBuffer);
+                    }
+                }
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                | IllegalStateException e) {
+            System.err.println("Dropping the rest of a malformed datagram");
+            e.printStackTrace();
+        }
+        // the datagram either needs an ACK or acknowledged messages, which may open the congestion window
+        senderIdle.signal();
+    }
+
+    private PeerState getPeer(short id) {
+        if (id <= 0 || id >= peers.length) {
+            throw new IllegalStateException("Received a frame from an unknown host " + id);
         }
+        return peers[id];
     }
 
-    private void sendMessage(MessageToBeSent message) {
+    private void addToBatch(MessageToBeSent message, long now) {
         if (message == null) {
             throw new IllegalArgumentException(
                     "Cannot send null message or message to null host");
         }
-        Host dest = hostsMap.get(message.getDest());
-        byte[] msgBytes = message.getSerializedMsg();
-        DatagramPacket packet = new DatagramPacket(msgBytes, msgBytes.length, dest.getHostsSocket());
+        PeerState peer = peers[message.getDest()];
+        SerializedMessage serialized = message.getSerializedMsg();
+        if (!serialized.retain()) {
+            // acknowledged meanwhile, its bytes may already be reused
+            return;
+        }
+        if (message.getSeq() < 0) {
+            message.setSeq(peer.takeNextSeq());
+        }
+        DatagramBatch batch = peer.getBatch();
+        if (!batch.fits(serialized)) {
+            sendBatch(peer);
+        }
+        batch.addData(message.getSeq(), serialized, now);
+        serialized.release();
+        int transmissions = message.incrementTransmissions();
+        window.transmitted(transmissions > 1);
+        peer.sent(message, System.nanoTime());
+        // the timeout follows the latency to the peer, with an exponential backoff for each retransmission
+        message.setTimeOfSending(now);
+        message.setTimeout(peer.getRto(transmissions));
+        toRetry.schedule(message);
+    }
+
+    private void sendBatch(PeerState peer) {
+        Host dest = hostsMap.get(peer.getId());
+        DatagramBatch batch = peer.getBatch();
+        if (peer.getAckPendingSince() != 0) {
+            // we piggyback the ACK for everything received from the peer
+            peer.clearAckPending();
+            if (!batch.addAck(myId, peer.getReceived())) {
+                peer.ackNeeded(System.currentTimeMillis());
+            }
+        }
         try {
-            socket.send(packet);
+            // if the kernel buffer is full the datagram is dropped, as it would be by the network
+            if (channel.send(batch.toSend(), dest.getHostsSocket()) == 0 && !batch.isEmpty()) {
+                long now = System.currentTimeMillis();
+                peer.lost(now, now);
+            }
         } catch (IOException e) {
             System.err.println("Error while sending the message");
             e.printStackTrace();
         }
+        batch.clear();
     }
 
-    private Message receiveMessage() {
-        // we should only have sent packets not exceeding this size
-        byte[] buf = new byte[Constants.MSG_SIZE_NO_VALUES + Integer.BYTES * (ds + 1)];
-        DatagramPacket packet = new DatagramPacket(buf, buf.length);
+    /**
+     * Receives the next datagram in the receive buffer, blocking until one is available
+     * 
+     * @return true if a datagram was received and can be read from the receive buffer
+     */
+    private boolean receiveDatagram() throws InterruptedException {
+        receiveBuffer.clear();
         try {
-            socket.receive(packet);
-        } catch (IOException e) {
-            // packet not received, report only the non Timeout error
-            if (!(e instanceof SocketTimeoutException)) {
-                System.err.println("Error while receiving the packet");
-                e.printStackTrace();
-            }
-            return null;
-        }
-        Message m = Message.deserialize(packet.getData());
-        if (m != null) {
-            // we check we received an actual message
-            if (m.isAck()) {
-                acked.add(m.toSendTo(m.getSenderId(), false));
-            } else {
-                // if the received message is not an ACK itself, we can send an ACK
-                toSend.add(m.ack(myId).toSendTo(m.getSenderId(), true));
-                return m;
+            SocketAddress from = channel.receive(receiveBuffer);
+            if (from == null) {
+                // no datagram available : we block until one arrives
+                selector.select();
+                selector.selectedKeys().clear();
+                if (Thread.interrupted()) {
+                    throw new InterruptedException("Interrupted while waiting for a datagram");
+                }
+                return false;
             }
+        } catch (ClosedChannelException e) {
+            // the channel is closed when the PL threads are interrupted
+            throw new InterruptedException("PL channel closed while receiving a datagram");
+        } catch (IOException e) {
+            System.err.println("Error while receiving the packet");
+            e.printStackTrace();
+            return false;
         }
-        return null;
+        receiveBuffer.flip();
+        return true;
     }
 
-}
\ No newline at end of file
+}
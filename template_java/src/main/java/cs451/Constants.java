@@ -1,5 +1,8 @@
 package cs451;
 
+import cs451.Idle.IdleStrategyType;
+import cs451.Messages.LogsBuilder;
+
 public class Constants {
     public static final int ARG_LIMIT_CONFIG = 7;
 
@@ -20,15 +23,104 @@ public class Constants {
 
     public static final int MSG_SIZE_NO_VALUES = 14;
 
+    // retransmission timeout towards a peer before any RTT sample
     public static final int PL_TIMEOUT_BEFORE_RESEND = 8;
 
+    // bounds of the retransmission timeout derived from the RTT, including the exponential backoff
+    public static final int PL_MIN_RTO = 4;
+    public static final int PL_MAX_RTO = 1_000;
+
+    // maximum size of a datagram packing several messages, a bigger message is sent alone
+    public static final int PL_MTU = 1472;
+
+    // maximum time a message waits for others to the same destination before being sent
+    public static final int PL_BATCH_LINGER = 1;
+
+    // maximum time a received message waits for an ACK frame if no datagram goes back to its sender
+    public static final int PL_ACK_DELAY = 1;
+
+    // number of sequence numbers a peer can send ahead of the first one not acknowledged
+    public static final int PL_WINDOW_SIZE = 1024;
+
+    // number of messages in flight towards a peer allowed by its congestion window
+    public static final int PL_INITIAL_CWND = 32;
+    public static final int PL_MIN_CWND = 4;
+
+    // size of the pooled buffers of the messages without values or with few of them, the others take buffers
+    // of the largest message size
+    public static final int PL_SMALL_BUFFER_SIZE = 64;
+    // direct buffers of each size the PL pool allocates at most, heap buffers are used beyond
+    public static final int PL_MAX_POOLED_BUFFERS = 4 * PL_WINDOW_SIZE;
+
+    // longest time in milliseconds a thread stays idle without being signalled
     public static final int SLEEP_BEFORE_NEXT_POLL = 40;
 
-    public static final int SOCKET_TIMEOUT = 1;
+    // how threads wait for work, see IdleStrategyType for the CPU usage of each strategy
+    public static final IdleStrategyType IDLE_STRATEGY = IdleStrategyType.PARK;
 
+    // time in milliseconds before trying again to hand a message to a full PL queue
+    public static final int PL_QUEUE_FULL_RETRY = 1;
+
+    // longest time in milliseconds the logs wait before being written to the output
     public static final long TIME_BEFORE_FLUSH = 2_000;
+    // number of logged bytes after which the logs writer writes them, as whole chunks of the output
+    public static final int LOGS_FLUSH_SIZE = 1 << 20;
+    public static final int LOGS_WRITE_CHUNK = 1 << 16;
+    // when the logs writer syncs the output to the disk, see LogsBuilder, and the time in milliseconds between
+    // two periodic syncs or the window of a group commit
+    public static final LogsBuilder.Durability LOGS_DURABILITY = LogsBuilder.Durability.NONE;
+    public static final long LOGS_DURABILITY_INTERVAL = 1;
+    // the decisions are written into the memory mapped output with an index of their offsets, see
+    // MappedDecisionLog, rather than by the logs writer thread
+    public static final boolean LOGS_MAPPED_OUTPUT = false;
+    // number of bytes by which the memory mapped output and its index are grown
+    public static final int LOGS_MAPPED_REGION = 1 << 26;
+
+    // bounds of the number of agreements in flight, adapted by the window controller
+    public static final int LATTICE_MIN_WINDOW = 8;
+    public static final int LATTICE_MAX_WINDOW = 256;
+    // the window shrinks when a decision takes this many times the lowest decision latency, when this ratio of
+    // the PL transmissions are retransmissions, or when less than this ratio of the heap is free
+    public static final int LATTICE_WINDOW_LATENCY_FACTOR = 4;
+    public static final double LATTICE_WINDOW_MAX_RETRANSMISSIONS = 0.05;
+    public static final double LATTICE_WINDOW_MIN_FREE_MEMORY = 0.1;
+    // number of PL transmissions over which the retransmission ratio is measured
+    public static final int LATTICE_WINDOW_MIN_SAMPLE = 256;
 
-    public static final int MAX_OUT_OF_ORDER_DELIVERY = 8;
+    // NACKs only carry the values missing to the proposer and re-proposals the values added since the previous
+    // proposal, instead of whole sets
+    public static final boolean LATTICE_DELTA_MESSAGES = true;
+
+    // threads handling the receiver lattice messages, sharded by agreement id : with a single one the receiver
+    // lattice thread handles them itself
+    public static final int LATTICE_RECEIVER_WORKERS = 1;
 
     public static final int MAX_PL_QUEUE_SIZE = 1024;
+
+    // initial number of slots for the agreements from the window bottom, enough for the largest window
+    public static final int LATTICE_AGREEMENT_SLOTS = 2 * LATTICE_MAX_WINDOW;
+    // farthest agreement from the window bottom we propose, the bottom may wait for late hosts
+    public static final int LATTICE_MAX_AHEAD_OF_BOTTOM = 4 * LATTICE_AGREEMENT_SLOTS;
+
+    // number of decisions ahead of the next one to log kept in the receiver's reorder ring, a power of two
+    public static final int RECEIVER_REORDER_SLOTS = 2 * LATTICE_AGREEMENT_SLOTS;
+
+    // share of the heap for the retired agreements, whose whole state is kept, older ones are forgotten and only
+    // their accepted values are kept to answer the proposals of late hosts, for as many agreements, until every
+    // host we hear from decided them
+    public static final double LATTICE_RETIRED_MEMORY = 0.05;
+    public static final int LATTICE_MIN_RETIRED_HISTORY = 256;
+    public static final int LATTICE_MAX_RETIRED_HISTORY = 1 << 16;
+    // rough size in bytes of the state of an agreement, without its value sets
+    public static final int LATTICE_AGREEMENT_STATE_BYTES = 512;
+
+    // time in milliseconds after which we propose again an agreement we did not decide, in case the answers to
+    // our proposal were dropped for a while
+    public static final int LATTICE_REPROPOSE_TIMEOUT = 1_000;
+
+    // number of newly forgotten agreements after which the PL sender drops the messages it still holds for them
+    // and no peer needs anymore
+    public static final int PL_PURGE_STEP = 64;
+    // time in milliseconds without any datagram from a peer after which it is suspected to have crashed
+    public static final int PL_SUSPECT_TIMEOUT = 2_000;
 }
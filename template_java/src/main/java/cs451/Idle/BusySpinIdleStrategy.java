@@ -0,0 +1,22 @@
+package cs451.Idle;
+
+/**
+ * Keeps the owner thread on its core, checking for work as often as possible
+ */
+public class BusySpinIdleStrategy implements IdleStrategy {
+    @Override
+    public void idle(long maxNanos) throws InterruptedException {
+        Thread.onSpinWait();
+        if (Thread.interrupted()) {
+            throw new InterruptedException("Interrupted while idle");
+        }
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    @Override
+    public void signal() {
+    }
+}
@@ -0,0 +1,23 @@
+package cs451.Idle;
+
+/**
+ * How a thread waits when it has nothing to do. Each strategy is owned by the single thread consuming the
+ * work, the threads producing work for it signal the strategy once they made the work visible.
+ */
+public interface IdleStrategy {
+    /**
+     * Waits for a signal, for at most the given time, after a pass of the owner thread that found no work.
+     * Might return earlier than both, the owner checks again for work anyway.
+     */
+    void idle(long maxNanos) throws InterruptedException;
+
+    /**
+     * Called by the owner thread after a pass that found work
+     */
+    void reset();
+
+    /**
+     * Tells the owner thread that work is available, called from any thread
+     */
+    void signal();
+}
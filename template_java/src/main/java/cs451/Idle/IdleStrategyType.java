@@ -0,0 +1,26 @@
+package cs451.Idle;
+
+/**
+ * The available idle strategies, trading CPU usage for the latency of waking up
+ */
+public enum IdleStrategyType {
+    // the thread sleeps until it is signalled, no CPU used while idle
+    PARK,
+    // the thread spins for a while then yields its core to other threads
+    SPIN_YIELD,
+    // the thread never gives its core back, lowest latency for one core per thread
+    BUSY_SPIN;
+
+    public IdleStrategy create() {
+        switch (this) {
+            case PARK:
+                return new ParkIdleStrategy();
+            case SPIN_YIELD:
+                return new SpinYieldIdleStrategy();
+            case BUSY_SPIN:
+                return new BusySpinIdleStrategy();
+            default:
+                throw new IllegalStateException("Unhandled IdleStrategyType");
+        }
+    }
+}
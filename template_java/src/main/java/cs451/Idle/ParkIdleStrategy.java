@@ -0,0 +1,39 @@
+package cs451.Idle;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Parks the owner thread until it is signalled or the idle time elapsed. Producers only unpark the owner
+ * when it is parked, so that signalling a busy thread is cheap.
+ */
+public class ParkIdleStrategy implements IdleStrategy {
+    private volatile Thread parked;
+    private volatile boolean signalled;
+
+    @Override
+    public void idle(long maxNanos) throws InterruptedException {
+        // published before checking the signal, a producer either sees the parked thread or we see its signal
+        parked = Thread.currentThread();
+        if (!signalled) {
+            LockSupport.parkNanos(this, maxNanos);
+        }
+        parked = null;
+        signalled = false;
+        if (Thread.interrupted()) {
+            throw new InterruptedException("Interrupted while idle");
+        }
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    @Override
+    public void signal() {
+        signalled = true;
+        Thread toUnpark = parked;
+        if (toUnpark != null) {
+            LockSupport.unpark(toUnpark);
+        }
+    }
+}
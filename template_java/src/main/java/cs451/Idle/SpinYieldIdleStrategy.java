@@ -0,0 +1,33 @@
+package cs451.Idle;
+
+/**
+ * Spins for a number of idle passes, then yields the core at each idle pass until work is found again.
+ * Signals are not needed as the owner keeps checking for work.
+ */
+public class SpinYieldIdleStrategy implements IdleStrategy {
+    private static final int MAX_SPINS = 100;
+
+    private int spins = 0;
+
+    @Override
+    public void idle(long maxNanos) throws InterruptedException {
+        if (spins < MAX_SPINS) {
+            ++spins;
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException("Interrupted while idle");
+        }
+    }
+
+    @Override
+    public void reset() {
+        spins = 0;
+    }
+
+    @Override
+    public void signal() {
+    }
+}
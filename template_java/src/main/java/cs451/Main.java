@@ -3,7 +3,7 @@ package cs451;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.util.Map;
-import cs451.Messages.LogsBuilder;
+import cs451.Messages.DecisionLog;
 import cs451.Parsers.ConfigParser;
 import cs451.Parsers.Parser;
 import cs451.States.LatticeState;
@@ -44,7 +44,7 @@ public class Main {
         System.out.println("Doing some initialization\n");
 
         System.out.println("Creating output file");
-        final LogsBuilder logsBuilder = new LogsBuilder(parser.output());
+        final DecisionLog logsBuilder = DecisionLog.open(parser.output());
         final short myId = parser.myId();
         final Map<Short, Host> hostsMap = parser.hostsMap();
         final ConfigParser configParser = parser.configParser();
@@ -86,19 +86,17 @@ public class Main {
         }
     }
 
-    private static void handleSignal(LogsBuilder logsBuilder, String output, Thread sender,
+    private static void handleSignal(DecisionLog logsBuilder, String output, Thread sender,
             Thread receiver) {
         // immediately stop network packet processing
         System.out.println("Immediately stopping network packet processing.");
         sender.interrupt();
         receiver.interrupt();
 
-        // https://www.geeksforgeeks.org/java-program-to-write-into-a-file/
-        System.out.println("Writing output.");
-        logsBuilder.tryFlush(true);
+        logsBuilder.drain();
     }
 
-    private static void initSignalHandlers(LogsBuilder logsBuilder, String output, Thread sender,
+    private static void initSignalHandlers(DecisionLog logsBuilder, String output, Thread sender,
             Thread receiver) {
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
@@ -0,0 +1,46 @@
+package cs451.Messages;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes int values as ASCII digits straight into a byte buffer, without going through a String
+ */
+public final class AsciiEncoding {
+    // length of the longest int, Integer.MIN_VALUE
+    public static final int MAX_INT_LENGTH = 11;
+
+    private AsciiEncoding() {
+    }
+
+    /**
+     * Gives the number of bytes of the value written in decimal
+     */
+    public static int length(int v) {
+        // counted on the negative value, which also holds Integer.MIN_VALUE
+        int n = v < 0 ? v : -v;
+        int length = v < 0 ? 2 : 1;
+        while (n <= -10) {
+            n /= 10;
+            ++length;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the value in decimal at the position of the buffer, which must have enough remaining bytes
+     */
+    public static void putInt(ByteBuffer buffer, int v) {
+        int length = length(v);
+        int start = buffer.position();
+        int i = start + length;
+        int n = v < 0 ? v : -v;
+        do {
+            buffer.put(--i, (byte) ('0' - n % 10));
+            n /= 10;
+        } while (n != 0);
+        if (v < 0) {
+            buffer.put(start, (byte) '-');
+        }
+        buffer.position(start + length);
+    }
+}
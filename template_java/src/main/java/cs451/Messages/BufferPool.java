@@ -0,0 +1,113 @@
+package cs451.Messages;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of direct buffers reused to serialize messages, so that the send path does not allocate once the pool
+ * holds enough buffers for the messages in flight. The buffers come in two sizes : small ones for the messages
+ * without values or with few of them, and ones of the largest message size. At most maxBuffers direct buffers
+ * of each size are allocated, so the pool never holds more than maxBuffers * (smallSize + bufferSize) bytes :
+ * beyond that, heap buffers are given and left to the garbage collector once released.
+ */
+public class BufferPool {
+    private final ArrayDeque<ByteBuffer> freeSmall;
+    private final ArrayDeque<ByteBuffer> free;
+    private final int smallSize;
+    private final int bufferSize;
+    private final int maxBuffers;
+    // direct buffers of each size allocated so far
+    private int allocatedSmall;
+    private int allocated;
+
+    public BufferPool(int bufferSize) {
+        this(bufferSize, bufferSize, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param smallSize  : size of the buffers of the small messages, the largest size is used if it is not
+     *                   smaller
+     * @param bufferSize : size of the largest message
+     * @param maxBuffers : number of direct buffers of each size allocated at most
+     */
+    public BufferPool(int smallSize, int bufferSize, int maxBuffers) {
+        if (smallSize <= 0 || bufferSize <= 0 || maxBuffers <= 0) {
+            throw new IllegalArgumentException("Cannot pool buffers with a non positive size or count");
+        }
+        this.freeSmall = new ArrayDeque<>();
+        this.free = new ArrayDeque<>();
+        this.smallSize = Integer.min(smallSize, bufferSize);
+        this.bufferSize = bufferSize;
+        this.maxBuffers = maxBuffers;
+        this.allocatedSmall = 0;
+        this.allocated = 0;
+    }
+
+    /**
+     * Gives a cleared buffer of the pool's buffer size
+     */
+    public ByteBuffer acquire() {
+        return acquire(bufferSize);
+    }
+
+    /**
+     * Gives a cleared buffer of the smallest size holding the given number of bytes, allocated only if no
+     * buffer of that size is free, on the heap once maxBuffers of that size were allocated
+     */
+    public synchronized ByteBuffer acquire(int size) {
+        if (size > bufferSize) {
+            throw new IllegalArgumentException("Cannot pool a buffer larger than " + bufferSize + " bytes");
+        }
+        boolean small = size <= smallSize && smallSize < bufferSize;
+        ByteBuffer buffer = small ? freeSmall.poll() : free.poll();
+        if (buffer == null) {
+            int capacity = small ? smallSize : bufferSize;
+            if ((small ? allocatedSmall : allocated) < maxBuffers) {
+                buffer = ByteBuffer.allocateDirect(capacity);
+                if (small) {
+                    ++allocatedSmall;
+                } else {
+                    ++allocated;
+                }
+            } else {
+                buffer = ByteBuffer.allocate(capacity);
+            }
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Gives back a buffer acquired from this pool, it must not be used afterwards
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer == null || (buffer.capacity() != bufferSize && buffer.capacity() != smallSize)) {
+            throw new IllegalArgumentException("Cannot release a buffer not coming from this pool");
+        }
+        if (!buffer.isDirect()) {
+            // given once the pool was full
+            return;
+        }
+        if (buffer.capacity() == smallSize && smallSize < bufferSize) {
+            freeSmall.push(buffer);
+        } else {
+            free.push(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Gives the number of buffers given back and not acquired again
+     */
+    public synchronized int getFree() {
+        return freeSmall.size() + free.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BufferPool [free=" + getFree() + ", bufferSize=" + bufferSize + "]";
+    }
+}
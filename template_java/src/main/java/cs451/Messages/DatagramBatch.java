@@ -0,0 +1,119 @@
+package cs451.Messages;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs the frames going to the same destination in a single datagram. A DATA frame carries a message with
+ * its PL sequence number, an ACK frame carries the window of sequence numbers received from the destination.
+ */
+public class DatagramBatch {
+    public enum FrameType {
+        DATA, ACK;
+
+        public final static FrameType[] values = FrameType.values();
+
+        public static FrameType fromByte(byte b) {
+            if (b < 0 || b >= values.length) {
+                throw new IllegalStateException("Cannot deserialize frame type");
+            }
+            return values[b];
+        }
+
+        public byte byteValue() {
+            return (byte) this.ordinal();
+        }
+    }
+
+    // frame type and sequence number
+    public static final int DATA_HEADER_SIZE = 1 + Integer.BYTES;
+
+    // frame type and id of the acknowledging host
+    public static final int ACK_HEADER_SIZE = 1 + Short.BYTES;
+
+    private final ByteBuffer buffer;
+    private final int mtu;
+    private int nbMessages;
+    private long firstAdded;
+
+    public DatagramBatch(int mtu, int maxMsgSize) {
+        if (mtu <= 0 || maxMsgSize <= 0) {
+            throw new IllegalArgumentException("Cannot have a batch with non positive size");
+        }
+        this.buffer = ByteBuffer.allocateDirect(maxDatagramSize(mtu, maxMsgSize));
+        this.mtu = mtu;
+        this.nbMessages = 0;
+    }
+
+    /**
+     * Size of the biggest datagram that can be built : a single message larger than the MTU is still sent,
+     * alone in its datagram
+     */
+    public static int maxDatagramSize(int mtu, int maxMsgSize) {
+        return Integer.max(mtu, DATA_HEADER_SIZE + maxMsgSize);
+    }
+
+    public boolean fits(SerializedMessage msg) {
+        return nbMessages == 0 || buffer.position() + DATA_HEADER_SIZE + msg.size() <= mtu;
+    }
+
+    /**
+     * Adds a DATA frame for the message, the caller must hold a reference to its serialized bytes
+     */
+    public void addData(int seq, SerializedMessage msg, long now) {
+        if (!fits(msg)) {
+            throw new IllegalStateException("Cannot add a message exceeding the batch MTU");
+        }
+        if (nbMessages == 0) {
+            firstAdded = now;
+        }
+        buffer.put(FrameType.DATA.byteValue()).putInt(seq);
+        msg.copyTo(buffer);
+        ++nbMessages;
+    }
+
+    /**
+     * Adds an ACK frame for the received window if there is still room for it in the datagram without exceeding
+     * the MTU, unless the datagram only holds a message larger than the MTU which is sent alone anyway
+     *
+     * @return true if the frame was added
+     */
+    public boolean addAck(short myId, SeqWindow received) {
+        int ackSize = ACK_HEADER_SIZE + received.maxWrittenSize();
+        boolean oversized = nbMessages == 1 && buffer.position() > mtu;
+        if (buffer.remaining() < ackSize || (nbMessages > 0 && !oversized && buffer.position() + ackSize > mtu)) {
+            return false;
+        }
+        buffer.put(FrameType.ACK.byteValue()).putShort(myId);
+        received.writeTo(buffer);
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return nbMessages == 0;
+    }
+
+    public int getNbMessages() {
+        return nbMessages;
+    }
+
+    public long getFirstAdded() {
+        return firstAdded;
+    }
+
+    /**
+     * Gives the content of the batch ready to be sent, it should be cleared once sent
+     */
+    public ByteBuffer toSend() {
+        return buffer.flip();
+    }
+
+    public void clear() {
+        buffer.clear();
+        nbMessages = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "DatagramBatch [nbMessages=" + nbMessages + ", size=" + buffer.position() + ", mtu=" + mtu + "]";
+    }
+}
@@ -0,0 +1,26 @@
+package cs451.Messages;
+
+import cs451.Constants;
+
+/**
+ * Output the decisions are logged to, one line per agreement in the order of the agreements
+ */
+public interface DecisionLog {
+    /**
+     * Logs the line of the next decision, its values in ascending order each followed by a space. A line holds
+     * a set : the lines used to follow the iteration order of the decided set, which readers must not rely on.
+     */
+    void log(ValueSet decision);
+
+    /**
+     * Makes everything logged so far visible in the output and closes it, later logs are dropped
+     */
+    void drain();
+
+    /**
+     * Opens the output configured in the constants
+     */
+    static DecisionLog open(String output) {
+        return Constants.LOGS_MAPPED_OUTPUT ? new MappedDecisionLog(output) : new LogsBuilder(output);
+    }
+}
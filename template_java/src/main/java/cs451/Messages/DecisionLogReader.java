@@ -0,0 +1,136 @@
+package cs451.Messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Reads the decisions of an output written by the MappedDecisionLog, while it is written or after. The side
+ * index gives where the line of each agreement is, so only the lines asked for are read.
+ */
+public class DecisionLogReader implements AutoCloseable {
+    // number of output bytes read at once
+    private static final int READ_SIZE = 1 << 16;
+
+    private final FileChannel data;
+    private final FileChannel index;
+    private final int valuesDomain;
+    private final ByteBuffer indexBuffer;
+    private final ByteBuffer dataBuffer;
+
+    public DecisionLogReader(String output) throws IOException {
+        this(output, ValueSet.DEFAULT_DOMAIN);
+    }
+
+    /**
+     * @param valuesDomain : domain of the value sets read
+     */
+    public DecisionLogReader(String output, int valuesDomain) throws IOException {
+        this.data = FileChannel.open(Paths.get(output), StandardOpenOption.READ);
+        this.index = FileChannel.open(Paths.get(output + MappedDecisionLog.INDEX_SUFFIX), StandardOpenOption.READ);
+        this.valuesDomain = valuesDomain;
+        this.indexBuffer = ByteBuffer.allocate(Long.BYTES);
+        this.dataBuffer = ByteBuffer.allocate(READ_SIZE);
+    }
+
+    /**
+     * Gives the number of decisions logged so far
+     */
+    public synchronized int size() throws IOException {
+        return (int) readLong(0);
+    }
+
+    /**
+     * Gives the decision of the agreement, or null if it was not logged yet
+     */
+    public synchronized ValueSet read(int agreementId) throws IOException {
+        if (agreementId < 0) {
+            throw new IllegalArgumentException("Cannot read a negative agreement");
+        }
+        if (agreementId >= size()) {
+            return null;
+        }
+        ValueSet[] decision = new ValueSet[1];
+        parse(start(agreementId), end(agreementId), d -> decision[0] = d);
+        return decision[0];
+    }
+
+    /**
+     * Gives in order the decisions from the agreement to the last one logged so far
+     */
+    public synchronized void forEachFrom(int agreementId, Consumer<ValueSet> action) throws IOException {
+        if (agreementId < 0) {
+            throw new IllegalArgumentException("Cannot read a negative agreement");
+        }
+        int size = size();
+        if (agreementId < size) {
+            parse(start(agreementId), end(size - 1), action);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        data.close();
+        index.close();
+    }
+
+    private long start(int agreementId) throws IOException {
+        return agreementId == 0 ? 0 : end(agreementId - 1);
+    }
+
+    private long end(int agreementId) throws IOException {
+        return readLong(MappedDecisionLog.INDEX_HEADER + (long) agreementId * Long.BYTES);
+    }
+
+    private long readLong(long position) throws IOException {
+        indexBuffer.clear();
+        while (indexBuffer.hasRemaining()) {
+            if (index.read(indexBuffer, position + indexBuffer.position()) < 0) {
+                throw new IllegalStateException("The index of the output is truncated");
+            }
+        }
+        return indexBuffer.getLong(0);
+    }
+
+    /**
+     * Parses the whole lines between the offsets
+     */
+    private void parse(long start, long end, Consumer<ValueSet> action) throws IOException {
+        ValueSet.Builder builder = new ValueSet.Builder(valuesDomain);
+        int value = 0;
+        boolean negative = false;
+        long position = start;
+        while (position < end) {
+            dataBuffer.clear();
+            dataBuffer.limit((int) Long.min(dataBuffer.capacity(), end - position));
+            int read = data.read(dataBuffer, position);
+            if (read < 0) {
+                throw new IllegalStateException("The output is truncated");
+            }
+            position += read;
+            for (int i = 0; i < read; ++i) {
+                byte b = dataBuffer.get(i);
+                if (b == '-') {
+                    negative = true;
+                } else if (b == ' ') {
+                    builder.add(negative ? -value : value);
+                    value = 0;
+                    negative = false;
+                } else if (b == '\n') {
+                    action.accept(builder.build());
+                    builder = new ValueSet.Builder(valuesDomain);
+                } else {
+                    value = 10 * value + (b - '0');
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DecisionLogReader [valuesDomain=" + valuesDomain + "]";
+    }
+}
@@ -0,0 +1,36 @@
+package cs451.Messages;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the flushes of an output, from the write of the logged bytes to their sync to the disk if any
+ */
+public class FlushMetrics {
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    public synchronized void record(long nanos) {
+        ++count;
+        totalNanos += nanos;
+        maxNanos = Long.max(maxNanos, nanos);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMeanNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    public synchronized long getMaxNanos() {
+        return maxNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FlushMetrics [count=" + count + ", meanUs=" + TimeUnit.NANOSECONDS.toMicros(getMeanNanos())
+                + ", maxUs=" + TimeUnit.NANOSECONDS.toMicros(maxNanos) + "]";
+    }
+}
@@ -1,59 +1,349 @@
 package cs451.Messages;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
 
 import cs451.Constants;
+import cs451.Idle.IdleStrategy;
+import cs451.Idle.ParkIdleStrategy;
 
-public class LogsBuilder {
-    private final AtomicReference<StringBuilder> logBuilder;
-    private AtomicLong previousFlush;
-    private final String output;
+/**
+ * Appends the logs to the output file from a dedicated writer thread. The logging threads encode the lines
+ * into the active buffer while the writer writes the other one to the file, so that they never wait for the
+ * disk. The writer swaps the buffers once the active one holds enough bytes or the previous write is old
+ * enough, and only writes whole chunks of the file in the first case.
+ *
+ * The durability tells when the written logs are synced to the disk : never but on close, periodically, or
+ * by group commit where the writer syncs at once all the decisions logged within a window after the first.
+ */
+public class LogsBuilder implements DecisionLog {
+    public enum Durability {
+        NONE, PERIODIC, GROUP_COMMIT
+    }
+
+    private final FileChannel channel;
+    private final int flushSize;
+    private final int writeChunk;
+    private final long flushIntervalNanos;
+    private final Durability durability;
+    // time between two syncs when periodic, window of a group commit otherwise
+    private final long durabilityIntervalNanos;
+    // buffer the logs are encoded in, guarded by this
+    private ByteBuffer active;
+    // buffer written by the writer, empty when given back to the logging threads, guarded by this
+    private ByteBuffer spare;
+    // bytes following the last whole chunk written, waiting for the next write, guarded by writeLock
+    private final ByteBuffer tail;
+    private final Object writeLock;
+    private long written;
+    private long previousFlush;
+    private long previousForce;
+    private boolean closed;
+    // decisions logged, and logged when the buffers were last swapped, guarded by this
+    private long logged;
+    private long swappedLogged;
+    // decisions synced to the disk
+    private volatile long durable;
+    private final FlushMetrics flushMetrics;
+    // the writer thread waits on it, parked since it must not take a core from the protocol threads
+    private final IdleStrategy writerIdle;
+    private final Thread writer;
+    // writes a value of a decision line in the active buffer
+    private final IntConsumer putValue;
 
     public LogsBuilder(String output) {
-        this.logBuilder = new AtomicReference<>(new StringBuilder(""));
-        this.previousFlush = new AtomicLong(System.currentTimeMillis());
-        this.output = output;
+        this(output, Constants.LOGS_FLUSH_SIZE, Constants.LOGS_WRITE_CHUNK, Constants.TIME_BEFORE_FLUSH,
+                Constants.LOGS_DURABILITY, Constants.LOGS_DURABILITY_INTERVAL);
+    }
+
+    public LogsBuilder(String output, int flushSize, int writeChunk, long flushIntervalMs) {
+        this(output, flushSize, writeChunk, flushIntervalMs, Durability.NONE, flushIntervalMs);
+    }
+
+    /**
+     * @param flushSize       : number of logged bytes after which they are written
+     * @param writeChunk      : size of the file chunks written when the flush size is reached
+     * @param flushIntervalMs      : longest time in milliseconds logged bytes wait before being written
+     * @param durabilityIntervalMs : time in milliseconds between two periodic syncs, or window of a group
+     *                             commit
+     */
+    public LogsBuilder(String output, int flushSize, int writeChunk, long flushIntervalMs, Durability durability,
+            long durabilityIntervalMs) {
+        if (flushSize <= 0 || writeChunk <= 0 || flushIntervalMs <= 0 || durability == null
+                || durabilityIntervalMs < 0) {
+            throw new IllegalArgumentException("Cannot write the logs with these triggers");
+        }
+        this.flushSize = flushSize;
+        this.writeChunk = writeChunk;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.durability = durability;
+        this.durabilityIntervalNanos = TimeUnit.MILLISECONDS.toNanos(durabilityIntervalMs);
+        this.active = ByteBuffer.allocateDirect(2 * flushSize);
+        this.spare = ByteBuffer.allocateDirect(2 * flushSize);
+        this.tail = ByteBuffer.allocateDirect(writeChunk);
+        this.writeLock = new Object();
+        this.written = 0;
+        this.previousFlush = System.nanoTime();
+        this.previousForce = previousFlush;
+        this.closed = false;
+        this.logged = 0;
+        this.swappedLogged = 0;
+        this.durable = 0;
+        this.flushMetrics = new FlushMetrics();
+        this.writerIdle = new ParkIdleStrategy();
+        this.putValue = v -> {
+            AsciiEncoding.putInt(active, v);
+            active.put((byte) ' ');
+        };
         System.out.println("Initializing output.");
         try {
-            BufferedWriter f_writer = new BufferedWriter(new FileWriter(output));
-            f_writer.append("");
-            // flush the buffer to make sure everything is written
-            f_writer.flush();
-            f_writer.close();
+            this.channel = FileChannel.open(Paths.get(output), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
         } catch (IOException e) {
             e.printStackTrace();
-            System.err.println("Failed to write output");
+            throw new IllegalArgumentException("Failed to open output " + output);
         }
+        this.writer = new Thread(this::runWriter, "Logs Writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
     }
 
-    public synchronized void log(String s) {
-        synchronized (logBuilder) {
-            logBuilder.getAndUpdate(sb -> sb.append(s));
+    /**
+     * Encodes the characters of the line, which must all be ASCII
+     */
+    public void log(CharSequence s) {
+        boolean full;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            full = wakesWriter();
+            ensureRemaining(s.length());
+            for (int i = 0; i < s.length(); ++i) {
+                char c = s.charAt(i);
+                active.put((byte) c);
+                if (c == '\n') {
+                    ++logged;
+                }
+            }
+            full |= active.position() >= flushSize;
         }
+        if (full) {
+            writerIdle.signal();
+        }
+    }
+
+    @Override
+    public void log(ValueSet decision) {
+        boolean full;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            full = wakesWriter();
+            ensureRemaining(decision.size() * (AsciiEncoding.MAX_INT_LENGTH + 1) + 1);
+            decision.forEachValue(putValue);
+            active.put((byte) '\n');
+            ++logged;
+            full |= active.position() >= flushSize;
+        }
+        if (full) {
+            writerIdle.signal();
+        }
+    }
+
+    /**
+     * Called on shutdown, only waits for the write in progress if any. The writer is not interrupted since it
+     * would close the channel. Syncs the output unless there is no durability, and prints the flush latencies.
+     */
+    @Override
+    public void drain() {
+        synchronized (writeLock) {
+            if (closed) {
+                return;
+            }
+            System.out.println("Writing output.");
+            synchronized (this) {
+                closed = true;
+            }
+            flush(true, durability != Durability.NONE);
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Failed to close output");
+            }
+            System.out.println("Output flushes : " + flushMetrics);
+        }
+        writerIdle.signal();
+    }
+
+    /**
+     * Gives the number of decisions logged that were synced to the disk
+     */
+    public long getDurable() {
+        return durable;
+    }
+
+    public FlushMetrics getFlushMetrics() {
+        return flushMetrics;
     }
 
-    public synchronized void tryFlush(boolean force) {
-        synchronized (logBuilder) {
-            if ((System.currentTimeMillis() - previousFlush.get()) > Constants.TIME_BEFORE_FLUSH || force) {
-                System.out.println("Writing output.");
-                try {
-                    BufferedWriter f_writer = new BufferedWriter(new FileWriter(output, true));
-                    f_writer.append(logBuilder.getAndUpdate(s -> new StringBuilder("")));
-                    // flush the buffer to make sure everything is written
-                    f_writer.flush();
-                    f_writer.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    System.err.println("Failed to write output");
+    private void runWriter() {
+        try {
+            // end of the group commit window, 0 if no decision waits for a commit
+            long commitDeadline = 0;
+            while (true) {
+                long now = System.nanoTime();
+                long wait;
+                synchronized (writeLock) {
+                    if (closed) {
+                        return;
+                    }
+                    if (durability == Durability.GROUP_COMMIT && activeSize() > 0) {
+                        if (commitDeadline == 0) {
+                            commitDeadline = now + durabilityIntervalNanos;
+                        }
+                        if (now - commitDeadline >= 0 || activeSize() >= flushSize) {
+                            flush(true, true);
+                            commitDeadline = 0;
+                            continue;
+                        }
+                        wait = commitDeadline - now;
+                    } else if (durability == Durability.PERIODIC && now - previousForce >= durabilityIntervalNanos
+                            && loggedSinceDurable()) {
+                        flush(true, true);
+                        continue;
+                    } else {
+                        long untilFlush = flushIntervalNanos - (now - previousFlush);
+                        if (untilFlush <= 0) {
+                            if (activeSize() == 0 && tail.position() == 0) {
+                                // nothing to write, waits for the next interval
+                                previousFlush = now;
+                            } else {
+                                flush(true, false);
+                            }
+                            continue;
+                        }
+                        if (activeSize() >= flushSize) {
+                            flush(false, false);
+                            continue;
+                        }
+                        wait = untilFlush;
+                        if (durability == Durability.PERIODIC && loggedSinceDurable()) {
+                            wait = Long.min(wait, Long.max(0, durabilityIntervalNanos - (now - previousForce)));
+                        }
+                    }
                 }
-                previousFlush.set(System.currentTimeMillis());
-                System.gc();
+                writerIdle.idle(wait);
             }
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted logs writer while sleeping");
+            e.printStackTrace();
         }
     }
 
+    /**
+     * Writes the logged bytes, all of them or up to the last whole chunk, then syncs them to the disk if forced
+     * which requires writing all of them
+     */
+    private void flush(boolean all, boolean force) {
+        long start = System.nanoTime();
+        write(swap(), all);
+        if (force) {
+            try {
+                channel.force(false);
+                durable = swappedLogged;
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("Failed to sync output");
+            }
+            previousForce = System.nanoTime();
+        }
+        flushMetrics.record(System.nanoTime() - start);
+    }
+
+    /**
+     * The writer must know at once when the first decision waits for a sync
+     */
+    private boolean wakesWriter() {
+        return durability != Durability.NONE && active.position() == 0;
+    }
+
+    private synchronized boolean loggedSinceDurable() {
+        return logged > durable;
+    }
+
+    /**
+     * Gives the bytes logged since the last swap, to be written while the logging threads use the spare
+     */
+    private synchronized ByteBuffer swap() {
+        swappedLogged = logged;
+        ByteBuffer toWrite = active;
+        active = spare;
+        spare = toWrite;
+        toWrite.flip();
+        return toWrite;
+    }
+
+    private synchronized int activeSize() {
+        return active.position();
+    }
+
+    /**
+     * Writes the tail and the swapped buffer, up to the last whole chunk unless all is required, then gives
+     * the buffer back as the spare one
+     */
+    private void write(ByteBuffer toWrite, boolean all) {
+        tail.flip();
+        long available = tail.remaining() + toWrite.remaining();
+        long toPosition = all ? written + available : (written + available) / writeChunk * writeChunk;
+        int fromBuffer = (int) Long.max(0, toPosition - written - tail.remaining());
+        int end = toWrite.limit();
+        toWrite.limit(toWrite.position() + fromBuffer);
+        ByteBuffer[] buffers = { tail, toWrite };
+        try {
+            while (written < toPosition) {
+                written += channel.write(buffers);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Failed to write output");
+            // drops what could not be written rather than writing it out of order later
+            tail.position(tail.limit());
+            toWrite.position(toWrite.limit());
+        }
+        tail.compact();
+        toWrite.limit(end);
+        tail.put(toWrite);
+        toWrite.clear();
+        synchronized (this) {
+            spare = toWrite;
+        }
+        previousFlush = System.nanoTime();
+    }
+
+    /**
+     * Grows the active buffer if needed rather than waiting for the writer
+     */
+    private void ensureRemaining(int length) {
+        if (active.remaining() >= length) {
+            return;
+        }
+        ByteBuffer grown = ByteBuffer.allocateDirect(Integer.max(2 * active.capacity(), active.position() + length));
+        active.flip();
+        grown.put(active);
+        active = grown;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LogsBuilder [written=" + written + ", active=" + active.position() + ", durability=" + durability
+                + ", durable=" + durable + ", closed=" + closed + "]";
+    }
 }
@@ -0,0 +1,170 @@
+package cs451.Messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntConsumer;
+
+import cs451.Constants;
+
+/**
+ * Writes the decision lines into the memory mapped output, with the same bytes as the LogsBuilder, and the
+ * offset of the end of each line into a side index. The files are grown by whole regions mapped ahead of the
+ * writes, and cut to what was logged when drained. Nothing waits for the disk : the lines are in the page
+ * cache as soon as logged.
+ *
+ * The index starts with the number of decisions logged, followed by the end offset of the line of each
+ * agreement, all as longs. The number of decisions is updated after the line and its offset, so that a
+ * reader only sees whole lines.
+ *
+ * If the process is killed before being drained, the files keep their whole last regions : the output ends
+ * with NUL bytes after the last line, and the index with zeros. The reader is not affected since it only
+ * reads what the index counts, and {@link #recover(String)} cuts the files to it.
+ */
+public class MappedDecisionLog implements DecisionLog {
+    public static final String INDEX_SUFFIX = ".idx";
+    // bytes of the index before the offsets
+    public static final int INDEX_HEADER = Long.BYTES;
+
+    private final FileChannel data;
+    private final FileChannel index;
+    private final int regionSize;
+    // mapped regions of the files and their position in the files
+    private MappedByteBuffer dataRegion;
+    private long dataRegionStart;
+    private MappedByteBuffer indexRegion;
+    private long indexRegionStart;
+    private final MappedByteBuffer indexHeader;
+    private long written;
+    private long decisions;
+    private boolean closed;
+    // writes a value of a decision line in the data region
+    private final IntConsumer putValue;
+
+    public MappedDecisionLog(String output) {
+        this(output, Constants.LOGS_MAPPED_REGION);
+    }
+
+    /**
+     * @param regionSize : number of bytes by which the files are grown
+     */
+    public MappedDecisionLog(String output, int regionSize) {
+        if (regionSize <= 0) {
+            throw new IllegalArgumentException("Cannot grow the output by empty regions");
+        }
+        this.regionSize = regionSize;
+        this.written = 0;
+        this.decisions = 0;
+        this.closed = false;
+        this.putValue = v -> {
+            AsciiEncoding.putInt(dataRegion, v);
+            dataRegion.put((byte) ' ');
+        };
+        System.out.println("Initializing output.");
+        try {
+            this.data = open(output);
+            this.index = open(output + INDEX_SUFFIX);
+            this.indexHeader = index.map(MapMode.READ_WRITE, 0, INDEX_HEADER);
+            this.dataRegion = data.map(MapMode.READ_WRITE, 0, regionSize);
+            this.dataRegionStart = 0;
+            this.indexRegion = index.map(MapMode.READ_WRITE, INDEX_HEADER, regionSize);
+            this.indexRegionStart = INDEX_HEADER;
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException("Failed to open output " + output);
+        }
+    }
+
+    @Override
+    public synchronized void log(ValueSet decision) {
+        if (closed) {
+            return;
+        }
+        try {
+            if (dataRegion.remaining() < decision.size() * (AsciiEncoding.MAX_INT_LENGTH + 1) + 1) {
+                dataRegionStart += dataRegion.position();
+                dataRegion = data.map(MapMode.READ_WRITE, dataRegionStart,
+                        Long.max(regionSize, decision.size() * (AsciiEncoding.MAX_INT_LENGTH + 1L) + 1));
+            }
+            if (indexRegion.remaining() < Long.BYTES) {
+                indexRegionStart += indexRegion.position();
+                indexRegion = index.map(MapMode.READ_WRITE, indexRegionStart, Long.max(regionSize, Long.BYTES));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Failed to grow output");
+            return;
+        }
+        decision.forEachValue(putValue);
+        dataRegion.put((byte) '\n');
+        written = dataRegionStart + dataRegion.position();
+        indexRegion.putLong(written);
+        indexHeader.putLong(0, ++decisions);
+    }
+
+    /**
+     * Cuts the files to what was logged, the lines already are in the page cache
+     */
+    @Override
+    public synchronized void drain() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        System.out.println("Closing output.");
+        try {
+            data.truncate(written);
+            index.truncate(INDEX_HEADER + decisions * Long.BYTES);
+            data.close();
+            index.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Failed to close output");
+        }
+    }
+
+    /**
+     * Cuts an output that was not drained, and its index, to the decisions its index counts
+     *
+     * @return the number of decisions in the output
+     */
+    public static long recover(String output) throws IOException {
+        try (FileChannel data = FileChannel.open(Paths.get(output), StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+                FileChannel index = FileChannel.open(Paths.get(output + INDEX_SUFFIX), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)) {
+            long decisions = readLong(index, 0);
+            long length = decisions == 0 ? 0 : readLong(index, INDEX_HEADER + (decisions - 1) * Long.BYTES);
+            if (decisions < 0 || length < 0 || length > data.size()) {
+                throw new IllegalStateException("The index does not match the output " + output);
+            }
+            data.truncate(length);
+            index.truncate(INDEX_HEADER + decisions * Long.BYTES);
+            return decisions;
+        }
+    }
+
+    private static long readLong(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IllegalStateException("The index of the output is truncated");
+            }
+        }
+        return buffer.getLong(0);
+    }
+
+    private static FileChannel open(String path) throws IOException {
+        return FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MappedDecisionLog [written=" + written + ", decisions=" + decisions + ", closed=" + closed + "]";
+    }
+}
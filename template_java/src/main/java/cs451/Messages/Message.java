@@ -1,7 +1,6 @@
 package cs451.Messages;
 
 import java.nio.ByteBuffer;
-import java.util.HashSet;
 import java.util.Set;
 
 import cs451.Constants;
@@ -29,10 +28,16 @@ public class Message {
     }
 
     public enum PayloadType {
-        PROPOSAL, ACK, NACK, DECIDED;
+        // a re-proposal only carrying the values added since the proposer's previous proposal, and the request
+        // of an acceptor which cannot rebuild it to get the whole proposal
+        PROPOSAL, ACK, NACK, DECIDED, PROPOSAL_DELTA, RESEND;
 
         public final static PayloadType[] values = PayloadType.values();
 
+        public boolean hasValues() {
+            return this == PROPOSAL || this == NACK || this == PROPOSAL_DELTA;
+        }
+
         public static PayloadType fromByte(byte b) {
             if (b < 0 || b >= values.length) {
                 throw new IllegalStateException("Cannot deserialize payload type");
@@ -49,22 +54,54 @@ public class Message {
     }
 
     public static Message deserialize(byte[] bytes) {
-        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return deserialize(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Reads one message from the buffer's position, leaving the position right after it so that
+     * several messages packed in the same datagram can be read one after the other
+     * 
+     * @param buffer : the buffer to read the message from
+     */
+    public static Message deserialize(ByteBuffer buffer) {
+        return deserialize(buffer, ValueSet.DEFAULT_DOMAIN);
+    }
+
+    /**
+     * Reads one message from the buffer's position, its values in a set of the given bitset domain
+     */
+    public static Message deserialize(ByteBuffer buffer, int valuesDomain) {
         EchoAck echoAck = EchoAck.fromByte(buffer.get());
         short senderId = buffer.getShort();
         short sourceId = buffer.getShort();
         int agreementId = buffer.getInt();
         int activePropNumber = buffer.getInt();
         PayloadType payloadType = PayloadType.fromByte(buffer.get());
-        if (echoAck == EchoAck.ACK || payloadType == PayloadType.ACK || payloadType == PayloadType.DECIDED) {
+        if (echoAck == EchoAck.ACK || !payloadType.hasValues()) {
             return new Message(echoAck, senderId, sourceId, agreementId, activePropNumber, payloadType, null);
         } else {
-            int nbVals = buffer.getInt();
-            HashSet<Integer> proposals = new HashSet<>(nbVals);
-            for (int i = 0; i < nbVals; ++i) {
-                proposals.add(buffer.getInt());
-            }
-            return new Message(echoAck, senderId, sourceId, agreementId, activePropNumber, payloadType, proposals);
+            return new Message(echoAck, senderId, sourceId, agreementId, activePropNumber, payloadType,
+                    ValuesEncoding.decode(buffer, valuesDomain));
+        }
+    }
+
+    /**
+     * Gives the sender of the message at the buffer's position without moving the position
+     */
+    public static short peekSenderId(ByteBuffer buffer) {
+        return buffer.getShort(buffer.position() + 1);
+    }
+
+    /**
+     * Moves the buffer's position after the message at its position, without deserializing it
+     */
+    public static void skip(ByteBuffer buffer) {
+        int start = buffer.position();
+        EchoAck echoAck = EchoAck.fromByte(buffer.get(start));
+        PayloadType payloadType = PayloadType.fromByte(buffer.get(start + Constants.MSG_SIZE_NO_VALUES - 1));
+        buffer.position(start + Constants.MSG_SIZE_NO_VALUES);
+        if (echoAck != EchoAck.ACK && payloadType.hasValues()) {
+            ValuesEncoding.skip(buffer);
         }
     }
 
@@ -80,7 +117,10 @@ public class Message {
 
     private final PayloadType payloadType;
 
-    private final Set<Integer> values;
+    private final ValueSet values;
+
+    // values sorted for their encoding, computed once when the message is first serialized
+    private int[] sortedValues;
 
     public Message(EchoAck cType, short senderId, short sourceId, int agreementId, int activePropNumber,
             PayloadType pType, Set<Integer> values) {
@@ -96,13 +136,13 @@ public class Message {
         this.agreementId = agreementId;
         this.activePropNumber = activePropNumber;
         this.payloadType = pType;
-        if (echoAck == EchoAck.ACK || payloadType == PayloadType.ACK || payloadType == PayloadType.DECIDED) {
+        if (echoAck == EchoAck.ACK || !payloadType.hasValues()) {
             this.values = null;
         } else {
             if (values == null) {
                 throw new IllegalArgumentException("Cannot have null values for a proposal");
             }
-            this.values = values;
+            this.values = ValueSet.of(values);
         }
     }
 
@@ -115,7 +155,14 @@ public class Message {
     }
 
     public MessageToBeSent toSendTo(short dest, boolean buildFull) {
-        return new MessageToBeSent(this, dest, buildFull);
+        return new MessageToBeSent(this, dest, buildFull ? new SerializedMessage(this, null, 1) : null);
+    }
+
+    /**
+     * Serializes the message in a buffer of the pool to send it to the destination
+     */
+    public MessageToBeSent toSendTo(short dest, BufferPool pool) {
+        return new MessageToBeSent(this, dest, new SerializedMessage(this, pool, 1));
     }
 
     public Message ack(short ackSenderId) {
@@ -123,17 +170,38 @@ public class Message {
     }
 
     public byte[] serialize() {
-        ByteBuffer buffer = ByteBuffer
-                .allocate(Constants.MSG_SIZE_NO_VALUES + Integer.BYTES * (values == null ? 0 : values.size() + 1));
+        ByteBuffer buffer = ByteBuffer.allocate(serializedSize());
+        serializeInto(buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Largest serialized size of a message carrying at most the given number of values
+     */
+    public static int maxSerializedSize(int nbValues) {
+        return Constants.MSG_SIZE_NO_VALUES + ValuesEncoding.maxEncodedSize(nbValues);
+    }
+
+    public int serializedSize() {
+        return Constants.MSG_SIZE_NO_VALUES + (values == null ? 0 : ValuesEncoding.encodedSize(sortedValues()));
+    }
+
+    /**
+     * Writes the message at the buffer's position, which must have {@link #serializedSize()} bytes remaining
+     */
+    public void serializeInto(ByteBuffer buffer) {
         buffer.put(echoAck.byteValue()).putShort(senderId).putShort(sourceId).putInt(agreementId)
                 .putInt(activePropNumber).put(payloadType.byteValue());
-        if (!(echoAck == EchoAck.ACK || payloadType == PayloadType.ACK || payloadType == PayloadType.DECIDED)) {
-            buffer.putInt(values.size());
-            for (int v : values) {
-                buffer.putInt(v);
-            }
+        if (echoAck != EchoAck.ACK && payloadType.hasValues()) {
+            ValuesEncoding.encode(sortedValues(), buffer);
         }
-        return buffer.array();
+    }
+
+    private int[] sortedValues() {
+        if (sortedValues == null) {
+            sortedValues = ValuesEncoding.sorted(values);
+        }
+        return sortedValues;
     }
 
     @Override
@@ -167,7 +235,7 @@ public class Message {
         return payloadType;
     }
 
-    public Set<Integer> getValues() {
+    public ValueSet getValues() {
         return values;
     }
 
@@ -2,27 +2,25 @@ package cs451.Messages;
 
 public class MessageToBeSent {
     private final Message message;
-    private final byte[] serializedMsg;
+    private final SerializedMessage serializedMsg;
     private final short dest;
     private long timeOfSending;
     private long timeout;
+    private int seq = -1;
+    private int transmissions = 0;
+    // links to the other messages of the timer wheel slot the message is scheduled in
+    MessageToBeSent wheelPrev;
+    MessageToBeSent wheelNext;
+    int wheelSlot = -1;
 
-    public MessageToBeSent(Message m, short dest, boolean buildFull) {
+    /**
+     * @param serializedMsg : the serialized message to send, or null if the message is not meant to be sent
+     */
+    public MessageToBeSent(Message m, short dest, SerializedMessage serializedMsg) {
         if (m == null) {
             throw new IllegalArgumentException("Cannot build MessageToBeSent with null argument");
         }
-        if (buildFull) {
-            byte[] msgBytes = m.serialize();
-
-            if (msgBytes == null) {
-                throw new IllegalArgumentException("Could not serialize message m");
-            }
-
-            this.serializedMsg = msgBytes;
-
-        } else {
-            this.serializedMsg = null;
-        }
+        this.serializedMsg = serializedMsg;
         this.dest = dest;
         this.message = m;
     }
@@ -31,7 +29,7 @@ public class MessageToBeSent {
         return message;
     }
 
-    public byte[] getSerializedMsg() {
+    public SerializedMessage getSerializedMsg() {
         return serializedMsg;
     }
 
@@ -55,9 +53,28 @@ public class MessageToBeSent {
         this.timeout = timeout;
     }
 
+    /**
+     * Gives the PL sequence number of the message towards its destination, or -1 if it was not sent yet
+     */
+    public int getSeq() {
+        return seq;
+    }
+
+    public void setSeq(int seq) {
+        this.seq = seq;
+    }
+
+    public int getTransmissions() {
+        return transmissions;
+    }
+
+    public int incrementTransmissions() {
+        return ++transmissions;
+    }
+
     @Override
     public String toString() {
-        return "MessageToBeSent [message=" + message + ", dest=" + dest + "]";
+        return "MessageToBeSent [message=" + message + ", dest=" + dest + ", seq=" + seq + "]";
     }
 
     @Override
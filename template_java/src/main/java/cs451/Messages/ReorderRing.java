@@ -0,0 +1,95 @@
+package cs451.Messages;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import cs451.Idle.IdleStrategy;
+
+/**
+ * Puts back in order values produced out of order, such as decisions by agreement id. Each index is offered
+ * once, possibly by different producers, and a single consumer drains the values in order. The consumer is
+ * signalled as soon as the value it waits for is offered. Indexes too far ahead of the consumer for the ring
+ * wait in an overflow map.
+ */
+public class ReorderRing<T> {
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    private final ConcurrentHashMap<Integer, T> overflow;
+    private final IdleStrategy consumerIdle;
+    // next index to be drained, only written by the consumer
+    private volatile int head;
+
+    /**
+     * @param capacity     : number of indexes from the head kept in the ring, a power of two
+     * @param consumerIdle : idle strategy of the consumer, signalled when the head is offered
+     */
+    public ReorderRing(int capacity, IdleStrategy consumerIdle) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1 || consumerIdle == null) {
+            throw new IllegalArgumentException("The ring capacity must be a power of two");
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.overflow = new ConcurrentHashMap<>();
+        this.consumerIdle = consumerIdle;
+        this.head = 0;
+    }
+
+    /**
+     * Offers the value of an index, at most once per index
+     *
+     * @return false if the index was already drained
+     */
+    public boolean offer(int index, T value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Cannot offer a null value");
+        }
+        int h = head;
+        if (index < h) {
+            return false;
+        }
+        if (index - h > mask) {
+            overflow.put(index, value);
+        } else {
+            slots.set(index & mask, value);
+        }
+        // the slot is written before reading the head : either we see the consumer waiting for it, or the
+        // consumer sees it after moving its head
+        if (index == head) {
+            consumerIdle.signal();
+        }
+        return true;
+    }
+
+    /**
+     * Gives every value ready in order to the consumer, to be called by the consumer only
+     *
+     * @return the number of values drained
+     */
+    public int drain(Consumer<T> consumer) {
+        int drained = 0;
+        while (true) {
+            int h = head;
+            T value = slots.get(h & mask);
+            if (value == null && !overflow.isEmpty()) {
+                value = overflow.remove(h);
+            }
+            if (value == null) {
+                return drained;
+            }
+            slots.set(h & mask, null);
+            head = h + 1;
+            consumer.accept(value);
+            ++drained;
+        }
+    }
+
+    public int getHead() {
+        return head;
+    }
+
+    @Override
+    public String toString() {
+        return "ReorderRing [head=" + head + ", capacity=" + slots.length() + ", overflow=" + overflow.size() + "]";
+    }
+}
@@ -0,0 +1,167 @@
+package cs451.Messages;
+
+import java.nio.ByteBuffer;
+import java.util.function.IntConsumer;
+
+/**
+ * Set of the sequence numbers exchanged with one peer, kept as a low watermark (every sequence number
+ * below it is in the set) and a bitmap of the sequence numbers in [low, low + size)
+ */
+public class SeqWindow {
+    private final long[] bits;
+    private final int size;
+    private int low;
+
+    public SeqWindow(int size) {
+        if (size <= 0 || size % Long.SIZE != 0) {
+            throw new IllegalArgumentException("The window size must be a positive multiple of 64");
+        }
+        this.bits = new long[size / Long.SIZE];
+        this.size = size;
+        this.low = 0;
+    }
+
+    /**
+     * Adds a sequence number to the window
+     *
+     * @return true if the sequence number was not in the window and could be added, false if it was
+     *         already there or is too far ahead of the low watermark
+     */
+    public synchronized boolean add(int seq) {
+        if (seq < low || seq - low >= size) {
+            return false;
+        }
+        int idx = Math.floorMod(seq, size);
+        long mask = 1L << (idx & (Long.SIZE - 1));
+        if ((bits[idx >>> 6] & mask) != 0) {
+            return false;
+        }
+        bits[idx >>> 6] |= mask;
+        advanceLow();
+        return true;
+    }
+
+    public synchronized boolean contains(int seq) {
+        if (seq < low) {
+            return true;
+        } else if (seq - low >= size) {
+            return false;
+        }
+        int idx = Math.floorMod(seq, size);
+        return (bits[idx >>> 6] & (1L << (idx & (Long.SIZE - 1)))) != 0;
+    }
+
+    /**
+     * Tells whether the sequence number could be recorded, either because it is below the low watermark or
+     * because it falls in the bitmap
+     */
+    public synchronized boolean inWindow(int seq) {
+        return seq - low < size;
+    }
+
+    public synchronized int getLow() {
+        return low;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Writes the content of the window as the low watermark followed by the bitmap words above it, trailing
+     * empty words are not written
+     */
+    public synchronized void writeTo(ByteBuffer buffer) {
+        int nbWords = 0;
+        for (int i = 0; i < bits.length; ++i) {
+            if (wordFrom(low + i * Long.SIZE) != 0) {
+                nbWords = i + 1;
+            }
+        }
+        buffer.putInt(low).put((byte) nbWords);
+        for (int i = 0; i < nbWords; ++i) {
+            buffer.putLong(wordFrom(low + i * Long.SIZE));
+        }
+    }
+
+    /**
+     * Adds to this window the content of a window written by {@link #writeTo(ByteBuffer)}
+     */
+    public void addFrom(ByteBuffer buffer) {
+        addFrom(buffer, seq -> {
+        });
+    }
+
+    /**
+     * Adds to this window the content of a window written by {@link #writeTo(ByteBuffer)}
+     *
+     * @param onAdded : called, while holding the window, with every sequence number that was not in it yet
+     */
+    public synchronized void addFrom(ByteBuffer buffer, IntConsumer onAdded) {
+        int otherLow = buffer.getInt();
+        int nbWords = buffer.get() & 0xFF;
+        if (otherLow > low) {
+            for (int seq = low; seq < otherLow && seq - low < size; ++seq) {
+                int idx = Math.floorMod(seq, size);
+                long mask = 1L << (idx & (Long.SIZE - 1));
+                if ((bits[idx >>> 6] & mask) == 0) {
+                    onAdded.accept(seq);
+                }
+                bits[idx >>> 6] &= ~mask;
+            }
+            low = otherLow;
+        }
+        for (int i = 0; i < nbWords; ++i) {
+            long word = buffer.getLong();
+            while (word != 0) {
+                int seq = otherLow + i * Long.SIZE + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                if (seq >= low && seq - low < size) {
+                    int idx = Math.floorMod(seq, size);
+                    long mask = 1L << (idx & (Long.SIZE - 1));
+                    if ((bits[idx >>> 6] & mask) == 0) {
+                        onAdded.accept(seq);
+                    }
+                    bits[idx >>> 6] |= mask;
+                }
+            }
+        }
+        advanceLow();
+    }
+
+    /**
+     * Maximum number of bytes written by {@link #writeTo(ByteBuffer)}
+     */
+    public int maxWrittenSize() {
+        return Integer.BYTES + 1 + Long.BYTES * bits.length;
+    }
+
+    private void advanceLow() {
+        int idx = Math.floorMod(low, size);
+        long mask = 1L << (idx & (Long.SIZE - 1));
+        while ((bits[idx >>> 6] & mask) != 0) {
+            bits[idx >>> 6] &= ~mask;
+            ++low;
+            idx = Math.floorMod(low, size);
+            mask = 1L << (idx & (Long.SIZE - 1));
+        }
+    }
+
+    /**
+     * Gives the 64 bits of the bitmap starting at the given sequence number, which must be in the window
+     */
+    private long wordFrom(int seq) {
+        int idx = Math.floorMod(seq, size);
+        int off = idx & (Long.SIZE - 1);
+        long word = bits[idx >>> 6] >>> off;
+        if (off != 0) {
+            word |= bits[((idx >>> 6) + 1) % bits.length] << (Long.SIZE - off);
+        }
+        return word;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SeqWindow [low=" + low + ", size=" + size + "]";
+    }
+}
@@ -0,0 +1,87 @@
+package cs451.Messages;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Serialized bytes of a message, written once in a pooled buffer and given back to the pool when the last
+ * reference to them is released
+ */
+public class SerializedMessage {
+    private static final AtomicIntegerFieldUpdater<SerializedMessage> REFS = AtomicIntegerFieldUpdater
+            .newUpdater(SerializedMessage.class, "refs");
+
+    private final ByteBuffer buffer;
+    private final BufferPool pool;
+    private final int size;
+    private volatile int refs;
+
+    /**
+     * Serializes the message, in a buffer of the pool sized for it if the pool is not null and the message
+     * fits in its buffers
+     *
+     * @param refs : number of references to release before the buffer goes back to the pool
+     */
+    public SerializedMessage(Message m, BufferPool pool, int refs) {
+        if (m == null) {
+            throw new IllegalArgumentException("Cannot serialize a null message");
+        }
+        if (refs <= 0) {
+            throw new IllegalArgumentException("Cannot have serialized bytes without references");
+        }
+        this.size = m.serializedSize();
+        if (pool != null && size <= pool.getBufferSize()) {
+            this.buffer = pool.acquire(size);
+            this.pool = pool;
+        } else {
+            this.buffer = ByteBuffer.allocate(size);
+            this.pool = null;
+        }
+        m.serializeInto(buffer);
+        this.buffer.flip();
+        this.refs = refs;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Takes a reference to the bytes, to be released once done with them
+     *
+     * @return false if every reference was already released and the bytes cannot be used anymore
+     */
+    public boolean retain() {
+        int current = refs;
+        while (current > 0) {
+            if (REFS.compareAndSet(this, current, current + 1)) {
+                return true;
+            }
+            current = refs;
+        }
+        return false;
+    }
+
+    public void release() {
+        int remaining = REFS.decrementAndGet(this);
+        if (remaining == 0 && pool != null) {
+            pool.release(buffer);
+        } else if (remaining < 0) {
+            throw new IllegalStateException("Released more references than taken");
+        }
+    }
+
+    /**
+     * Copies the bytes at the position of the destination, the caller must hold a reference and be the only
+     * one reading the bytes
+     */
+    public void copyTo(ByteBuffer dst) {
+        buffer.position(0).limit(size);
+        dst.put(buffer);
+    }
+
+    @Override
+    public String toString() {
+        return "SerializedMessage [size=" + size + ", refs=" + refs + ", pooled=" + (pool != null) + "]";
+    }
+}
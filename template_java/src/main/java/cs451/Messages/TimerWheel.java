@@ -0,0 +1,140 @@
+package cs451.Messages;
+
+import java.util.Collection;
+
+/**
+ * Hashed timer wheel of the messages waiting for their retransmission, with one slot per millisecond. The
+ * span of the wheel is larger than any retransmission timeout, so a slot only holds messages due at the same
+ * time : expiring only touches the due messages and cancelling one only unlinks it from its slot.
+ */
+public class TimerWheel {
+    private final MessageToBeSent[] slots;
+    private final long[] occupied;
+    private final int mask;
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param span : the longest delay a message can be scheduled after the current time
+     * @param now  : the current time in milliseconds
+     */
+    public TimerWheel(int span, long now) {
+        if (span <= 0) {
+            throw new IllegalArgumentException("Cannot have a timer wheel with a non positive span");
+        }
+        // power of two to compute slots with a mask, at least a whole word of the occupied bitmap
+        int nbSlots = Integer.max(Long.SIZE, Integer.highestOneBit(span) << 1);
+        this.slots = new MessageToBeSent[nbSlots];
+        this.occupied = new long[nbSlots / Long.SIZE];
+        this.mask = nbSlots - 1;
+        this.currentTick = now;
+        this.size = 0;
+    }
+
+    /**
+     * Schedules the message to expire once its timeout elapsed after its time of sending
+     */
+    public synchronized void schedule(MessageToBeSent m) {
+        if (m == null) {
+            throw new IllegalArgumentException("Cannot schedule a null message");
+        }
+        if (m.wheelSlot >= 0) {
+            throw new IllegalStateException("Message already scheduled");
+        }
+        long deadline = Long.max(m.getTimeOfSending() + m.getTimeout() + 1, currentTick + 1);
+        if (deadline - currentTick > mask) {
+            throw new IllegalArgumentException("Cannot schedule a message further than the wheel span");
+        }
+        int slot = (int) (deadline & mask);
+        m.wheelSlot = slot;
+        m.wheelPrev = null;
+        m.wheelNext = slots[slot];
+        if (slots[slot] != null) {
+            slots[slot].wheelPrev = m;
+        }
+        slots[slot] = m;
+        occupied[slot >>> 6] |= 1L << (slot & (Long.SIZE - 1));
+        ++size;
+    }
+
+    /**
+     * Removes the message from the wheel if it is scheduled
+     *
+     * @return true if the message was scheduled
+     */
+    public synchronized boolean cancel(MessageToBeSent m) {
+        if (m == null || m.wheelSlot < 0) {
+            return false;
+        }
+        unlink(m);
+        return true;
+    }
+
+    /**
+     * Removes every message due at the given time and adds them to the expired collection
+     */
+    public synchronized void expire(long now, Collection<MessageToBeSent> expired) {
+        // after a whole turn every slot was visited
+        long lastTick = Long.min(now, currentTick + slots.length);
+        for (long tick = currentTick + 1; tick <= lastTick; ++tick) {
+            int slot = (int) (tick & mask);
+            while (slots[slot] != null) {
+                MessageToBeSent m = slots[slot];
+                unlink(m);
+                expired.add(m);
+            }
+        }
+        currentTick = Long.max(currentTick, now);
+    }
+
+    /**
+     * Gives the time at which the next message expires, or Long.MAX_VALUE if none is scheduled
+     */
+    public synchronized long nextDeadline() {
+        if (size == 0) {
+            return Long.MAX_VALUE;
+        }
+        int start = (int) ((currentTick + 1) & mask);
+        for (int i = 0; i <= occupied.length; ++i) {
+            int word = ((start >>> 6) + i) % occupied.length;
+            long bits = occupied[word];
+            if (i == 0) {
+                // we start in the middle of the first word
+                bits &= -1L << (start & (Long.SIZE - 1));
+            }
+            if (bits != 0) {
+                int slot = word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+                return currentTick + 1 + ((slot - start) & mask);
+            }
+        }
+        throw new IllegalStateException("Timer wheel size does not match its slots");
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private void unlink(MessageToBeSent m) {
+        int slot = m.wheelSlot;
+        if (m.wheelPrev != null) {
+            m.wheelPrev.wheelNext = m.wheelNext;
+        } else {
+            slots[slot] = m.wheelNext;
+        }
+        if (m.wheelNext != null) {
+            m.wheelNext.wheelPrev = m.wheelPrev;
+        }
+        if (slots[slot] == null) {
+            occupied[slot >>> 6] &= ~(1L << (slot & (Long.SIZE - 1)));
+        }
+        m.wheelPrev = null;
+        m.wheelNext = null;
+        m.wheelSlot = -1;
+        --size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TimerWheel [nbSlots=" + slots.length + ", currentTick=" + currentTick + ", size=" + size + "]";
+    }
+}
@@ -0,0 +1,415 @@
+package cs451.Messages;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntConsumer;
+
+/**
+ * Immutable set of lattice values. Values in [0, domain) are kept in a bitset split in chunks, values outside
+ * of the domain in a sorted array. A union or a difference gives a new version sharing the chunks it did not
+ * change with the sets it was built from, so sets can be handed between threads and kept as snapshots without
+ * copying them. Iterates in ascending order.
+ */
+public final class ValueSet extends AbstractSet<Integer> {
+    // bitset domain of the sets not built for a given configuration
+    public static final int DEFAULT_DOMAIN = 1 << 12;
+
+    public static final ValueSet EMPTY = new ValueSet(DEFAULT_DOMAIN, new long[0][], new int[0], 0);
+
+    // values per chunk of the bitset, the unit of sharing between versions
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_WORDS = 1 << (CHUNK_SHIFT - 6);
+
+    private final int domain;
+    // chunks of the bitset, null when they have no values, never modified once the set is built
+    private final long[][] chunks;
+    // values outside of the domain in ascending order
+    private final int[] outliers;
+    private final int size;
+
+    private ValueSet(int domain, long[][] chunks, int[] outliers, int size) {
+        this.domain = domain;
+        this.chunks = chunks;
+        this.outliers = outliers;
+        this.size = size;
+    }
+
+    public static ValueSet empty(int domain) {
+        return domain == DEFAULT_DOMAIN ? EMPTY : new ValueSet(checkedDomain(domain), EMPTY.chunks, EMPTY.outliers, 0);
+    }
+
+    /**
+     * Gives the values as a value set of the given domain, without copying them if they already are one
+     */
+    public static ValueSet of(Collection<Integer> values, int domain) {
+        if (values instanceof ValueSet && ((ValueSet) values).domain == domain) {
+            return (ValueSet) values;
+        }
+        Builder builder = new Builder(domain);
+        for (int v : values) {
+            builder.add(v);
+        }
+        return builder.build();
+    }
+
+    public static ValueSet of(Collection<Integer> values) {
+        return of(values, values instanceof ValueSet ? ((ValueSet) values).domain : DEFAULT_DOMAIN);
+    }
+
+    /**
+     * Bitset domain for the values of a configuration with at most ds distinct values : a bitset of the domain
+     * takes as much memory as an array of ds values
+     */
+    public static int domainFor(int ds) {
+        return (int) Long.min(Integer.MAX_VALUE, Long.max(DEFAULT_DOMAIN, (long) Integer.SIZE * ds));
+    }
+
+    public boolean contains(int v) {
+        if (inDomain(v)) {
+            int c = v >>> CHUNK_SHIFT;
+            return c < chunks.length && chunks[c] != null
+                    && (chunks[c][(v >>> 6) & (CHUNK_WORDS - 1)] & (1L << v)) != 0;
+        }
+        return Arrays.binarySearch(outliers, v) >= 0;
+    }
+
+    /**
+     * Tells whether every value of the other set is in this one
+     */
+    public boolean containsAllValues(ValueSet other) {
+        if (other.size > size) {
+            return false;
+        }
+        if (other.domain != domain) {
+            return containsEach(other);
+        }
+        for (int c = 0; c < other.chunks.length; ++c) {
+            long[] otherChunk = other.chunks[c];
+            long[] chunk = c < chunks.length ? chunks[c] : null;
+            if (otherChunk != null && otherChunk != chunk && (chunk == null || !isSubset(otherChunk, chunk))) {
+                return false;
+            }
+        }
+        // both are in ascending order
+        int i = 0;
+        for (int v : other.outliers) {
+            while (i < outliers.length && outliers[i] < v) {
+                ++i;
+            }
+            if (i == outliers.length || outliers[i] != v) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gives the union of the two sets, which is this set itself when the other set adds nothing to it
+     */
+    public ValueSet union(ValueSet other) {
+        if (other == this || other.size == 0) {
+            return this;
+        }
+        if (size == 0 && other.domain == domain) {
+            return other;
+        }
+        if (other.domain != domain) {
+            Builder builder = new Builder(this);
+            other.forEachValue(builder::add);
+            return builder.build();
+        }
+        long[][] newChunks = chunks;
+        int newSize = size;
+        for (int c = 0; c < other.chunks.length; ++c) {
+            long[] otherChunk = other.chunks[c];
+            long[] chunk = c < chunks.length ? chunks[c] : null;
+            if (otherChunk == null || otherChunk == chunk || (chunk != null && isSubset(otherChunk, chunk))) {
+                continue;
+            }
+            if (newChunks == chunks) {
+                newChunks = Arrays.copyOf(chunks, Integer.max(chunks.length, other.chunks.length));
+            }
+            if (chunk == null) {
+                // nothing to merge, the other set's chunk is shared as is
+                newChunks[c] = otherChunk;
+                newSize += bitCount(otherChunk);
+            } else {
+                long[] merged = new long[CHUNK_WORDS];
+                for (int w = 0; w < CHUNK_WORDS; ++w) {
+                    merged[w] = chunk[w] | otherChunk[w];
+                }
+                newChunks[c] = merged;
+                newSize += bitCount(merged) - bitCount(chunk);
+            }
+        }
+        int[] newOutliers = mergeOutliers(other.outliers);
+        if (newChunks == chunks && newOutliers == outliers) {
+            return this;
+        }
+        newSize += newOutliers.length - outliers.length;
+        return new ValueSet(domain, newChunks, newOutliers, newSize);
+    }
+
+    /**
+     * Gives the values of this set which are not in the other set
+     */
+    public ValueSet minus(ValueSet other) {
+        if (other.size == 0) {
+            return this;
+        }
+        if (other.domain != domain) {
+            Builder builder = new Builder(domain);
+            forEachValue(v -> {
+                if (!other.contains(v)) {
+                    builder.add(v);
+                }
+            });
+            return builder.build();
+        }
+        long[][] newChunks = new long[chunks.length][];
+        int newSize = 0;
+        for (int c = 0; c < chunks.length; ++c) {
+            long[] chunk = chunks[c];
+            long[] otherChunk = c < other.chunks.length ? other.chunks[c] : null;
+            if (chunk == null || chunk == otherChunk) {
+                continue;
+            }
+            if (otherChunk == null) {
+                newChunks[c] = chunk;
+                newSize += bitCount(chunk);
+                continue;
+            }
+            long[] difference = new long[CHUNK_WORDS];
+            int count = 0;
+            for (int w = 0; w < CHUNK_WORDS; ++w) {
+                difference[w] = chunk[w] & ~otherChunk[w];
+                count += Long.bitCount(difference[w]);
+            }
+            if (count > 0) {
+                newChunks[c] = difference;
+                newSize += count;
+            }
+        }
+        int[] newOutliers = outliers.length == 0 || other.outliers.length == 0 ? outliers
+                : Arrays.stream(outliers).filter(v -> Arrays.binarySearch(other.outliers, v) < 0).toArray();
+        return new ValueSet(domain, newChunks, newOutliers, newSize + newOutliers.length);
+    }
+
+    /**
+     * Gives the values in ascending order to the action, without boxing them
+     */
+    public void forEachValue(IntConsumer action) {
+        int i = 0;
+        while (i < outliers.length && outliers[i] < 0) {
+            action.accept(outliers[i++]);
+        }
+        for (int c = 0; c < chunks.length; ++c) {
+            if (chunks[c] == null) {
+                continue;
+            }
+            for (int w = 0; w < CHUNK_WORDS; ++w) {
+                long word = chunks[c][w];
+                while (word != 0) {
+                    action.accept((c << CHUNK_SHIFT) + w * Long.SIZE + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+        while (i < outliers.length) {
+            action.accept(outliers[i++]);
+        }
+    }
+
+    /**
+     * Gives the values in ascending order in a new array
+     */
+    public int[] toSortedArray() {
+        int[] values = new int[size];
+        int[] i = { 0 };
+        forEachValue(v -> values[i[0]++] = v);
+        return values;
+    }
+
+    public int getDomain() {
+        return domain;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Integer && contains(((Integer) o).intValue());
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        if (c instanceof ValueSet) {
+            return containsAllValues((ValueSet) c);
+        }
+        return super.containsAll(c);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int hashCode() {
+        // the sum of the values, as for any set of integers
+        int[] hash = { 0 };
+        forEachValue(v -> hash[0] += v);
+        return hash[0];
+    }
+
+    @Override
+    public Iterator<Integer> iterator() {
+        int[] values = toSortedArray();
+        return new Iterator<Integer>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < values.length;
+            }
+
+            @Override
+            public Integer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return values[index++];
+            }
+        };
+    }
+
+    /**
+     * Gathers values to build a value set, the builder cannot be used anymore once the set is built
+     */
+    public static class Builder {
+        private final int domain;
+        private long[][] chunks;
+        private int[] outliers;
+        private int nbOutliers;
+        private int size;
+        private boolean built;
+
+        public Builder(int domain) {
+            this.domain = checkedDomain(domain);
+            this.chunks = EMPTY.chunks;
+            this.outliers = EMPTY.outliers;
+            this.nbOutliers = 0;
+            this.size = 0;
+            this.built = false;
+        }
+
+        /**
+         * Starts from the values of the set, whose chunks are copied before being changed
+         */
+        private Builder(ValueSet base) {
+            this(base.domain);
+            this.chunks = new long[base.chunks.length][];
+            for (int c = 0; c < chunks.length; ++c) {
+                chunks[c] = base.chunks[c] == null ? null : base.chunks[c].clone();
+            }
+            this.outliers = base.outliers.clone();
+            this.nbOutliers = outliers.length;
+            this.size = base.size - outliers.length;
+        }
+
+        public Builder add(int v) {
+            if (built) {
+                throw new IllegalStateException("Cannot add values to an already built set");
+            }
+            if (v >= 0 && v < domain) {
+                int c = v >>> CHUNK_SHIFT;
+                if (c >= chunks.length) {
+                    int maxChunks = ((domain - 1) >>> CHUNK_SHIFT) + 1;
+                    chunks = Arrays.copyOf(chunks, Integer.min(maxChunks, Integer.max(c + 1, 2 * chunks.length)));
+                }
+                if (chunks[c] == null) {
+                    chunks[c] = new long[CHUNK_WORDS];
+                }
+                int w = (v >>> 6) & (CHUNK_WORDS - 1);
+                if ((chunks[c][w] & (1L << v)) == 0) {
+                    chunks[c][w] |= 1L << v;
+                    ++size;
+                }
+            } else {
+                // sorted and deduplicated when built
+                if (nbOutliers == outliers.length) {
+                    outliers = Arrays.copyOf(outliers, Integer.max(4, 2 * nbOutliers));
+                }
+                outliers[nbOutliers++] = v;
+            }
+            return this;
+        }
+
+        public ValueSet build() {
+            if (built) {
+                throw new IllegalStateException("Cannot build a set twice");
+            }
+            built = true;
+            int[] sorted = nbOutliers == 0 ? EMPTY.outliers
+                    : Arrays.stream(outliers, 0, nbOutliers).sorted().distinct().toArray();
+            if (size == 0 && sorted.length == 0) {
+                return empty(domain);
+            }
+            return new ValueSet(domain, chunks, sorted, size + sorted.length);
+        }
+    }
+
+    private boolean inDomain(int v) {
+        return v >= 0 && v < domain;
+    }
+
+    private boolean containsEach(ValueSet other) {
+        boolean[] all = { true };
+        other.forEachValue(v -> all[0] &= contains(v));
+        return all[0];
+    }
+
+    private int[] mergeOutliers(int[] others) {
+        if (others.length == 0) {
+            return outliers;
+        }
+        int[] merged = new int[outliers.length + others.length];
+        int i = 0, j = 0, k = 0;
+        while (i < outliers.length || j < others.length) {
+            if (j == others.length || (i < outliers.length && outliers[i] < others[j])) {
+                merged[k++] = outliers[i++];
+            } else if (i == outliers.length || others[j] < outliers[i]) {
+                merged[k++] = others[j++];
+            } else {
+                merged[k++] = outliers[i++];
+                ++j;
+            }
+        }
+        return k == outliers.length ? outliers : Arrays.copyOf(merged, k);
+    }
+
+    private static boolean isSubset(long[] chunk, long[] of) {
+        for (int w = 0; w < CHUNK_WORDS; ++w) {
+            if ((chunk[w] & ~of[w]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int bitCount(long[] chunk) {
+        int count = 0;
+        for (long word : chunk) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    private static int checkedDomain(int domain) {
+        if (domain < 0) {
+            throw new IllegalArgumentException("Cannot have a negative bitset domain");
+        }
+        return domain;
+    }
+}
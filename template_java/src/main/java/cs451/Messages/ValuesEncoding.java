@@ -0,0 +1,250 @@
+package cs451.Messages;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Wire encodings of a set of values. The values are sorted and written in the smallest of three formats,
+ * announced by a leading byte : the deltas between consecutive values as varints, a bitmap of the range
+ * between the smallest and the largest value, or the raw values.
+ */
+public final class ValuesEncoding {
+    public enum Format {
+        DELTA, BITMAP, RAW;
+
+        public final static Format[] values = Format.values();
+
+        public static Format fromByte(byte b) {
+            if (b < 0 || b >= values.length) {
+                throw new IllegalStateException("Cannot deserialize values format");
+            }
+            return values[b];
+        }
+
+        public byte byteValue() {
+            return (byte) this.ordinal();
+        }
+    }
+
+    private ValuesEncoding() {
+    }
+
+    /**
+     * Gives the values sorted in a new array
+     */
+    public static int[] sorted(Set<Integer> values) {
+        if (values instanceof ValueSet) {
+            // already iterated in ascending order
+            return ((ValueSet) values).toSortedArray();
+        }
+        int[] sorted = new int[values.size()];
+        int i = 0;
+        for (int v : values) {
+            sorted[i++] = v;
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Largest encoded size of a set of at most the given number of values, the raw format being used when the
+     * others are larger
+     */
+    public static int maxEncodedSize(int nbValues) {
+        return 1 + Integer.BYTES * (nbValues + 1);
+    }
+
+    public static Format bestFormat(int[] sorted) {
+        int deltaSize = deltaSize(sorted);
+        long bitmapSize = bitmapSize(sorted);
+        if (deltaSize <= bitmapSize && deltaSize <= rawSize(sorted)) {
+            return Format.DELTA;
+        } else if (bitmapSize <= rawSize(sorted)) {
+            return Format.BITMAP;
+        }
+        return Format.RAW;
+    }
+
+    public static int encodedSize(int[] sorted) {
+        return (int) Long.min(Long.min(deltaSize(sorted), bitmapSize(sorted)), rawSize(sorted));
+    }
+
+    public static void encode(int[] sorted, ByteBuffer buffer) {
+        Format format = bestFormat(sorted);
+        buffer.put(format.byteValue());
+        switch (format) {
+            case DELTA:
+                putVarint(buffer, sorted.length);
+                for (int i = 0; i < sorted.length; ++i) {
+                    putVarint(buffer, i == 0 ? zigZag(sorted[0]) : sorted[i] - sorted[i - 1]);
+                }
+                break;
+            case BITMAP:
+                int nbBytes = (int) ((span(sorted) + Byte.SIZE - 1) / Byte.SIZE);
+                putVarint(buffer, zigZag(sorted[0]));
+                putVarint(buffer, nbBytes);
+                int start = buffer.position();
+                for (int i = 0; i < nbBytes; ++i) {
+                    buffer.put((byte) 0);
+                }
+                for (int v : sorted) {
+                    long bit = (long) v - sorted[0];
+                    int idx = start + (int) (bit / Byte.SIZE);
+                    buffer.put(idx, (byte) (buffer.get(idx) | 1 << (bit % Byte.SIZE)));
+                }
+                break;
+            case RAW:
+                buffer.putInt(sorted.length);
+                for (int v : sorted) {
+                    buffer.putInt(v);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unhandled values format");
+        }
+    }
+
+    public static ValueSet decode(ByteBuffer buffer) {
+        return decode(buffer, ValueSet.DEFAULT_DOMAIN);
+    }
+
+    /**
+     * Reads the encoded values at the buffer's position in a set of the given bitset domain
+     */
+    public static ValueSet decode(ByteBuffer buffer, int domain) {
+        Format format = Format.fromByte(buffer.get());
+        switch (format) {
+            case DELTA: {
+                int nbVals = checkedSize(getVarint(buffer), buffer);
+                ValueSet.Builder values = new ValueSet.Builder(domain);
+                int v = 0;
+                for (int i = 0; i < nbVals; ++i) {
+                    int delta = getVarint(buffer);
+                    v = i == 0 ? unZigZag(delta) : v + delta;
+                    values.add(v);
+                }
+                return values.build();
+            }
+            case BITMAP: {
+                int base = unZigZag(getVarint(buffer));
+                int nbBytes = checkedSize(getVarint(buffer), buffer);
+                ValueSet.Builder values = new ValueSet.Builder(domain);
+                for (int i = 0; i < nbBytes; ++i) {
+                    int bits = buffer.get() & 0xFF;
+                    while (bits != 0) {
+                        values.add(base + i * Byte.SIZE + Integer.numberOfTrailingZeros(bits));
+                        bits &= bits - 1;
+                    }
+                }
+                return values.build();
+            }
+            case RAW: {
+                int nbVals = checkedSize(buffer.getInt(), buffer);
+                ValueSet.Builder values = new ValueSet.Builder(domain);
+                for (int i = 0; i < nbVals; ++i) {
+                    values.add(buffer.getInt());
+                }
+                return values.build();
+            }
+            default:
+                throw new IllegalStateException("Unhandled values format");
+        }
+    }
+
+    /**
+     * Moves the buffer's position after the encoded values at its position
+     */
+    public static void skip(ByteBuffer buffer) {
+        Format format = Format.fromByte(buffer.get());
+        switch (format) {
+            case DELTA:
+                int nbVals = checkedSize(getVarint(buffer), buffer);
+                for (int i = 0; i < nbVals; ++i) {
+                    getVarint(buffer);
+                }
+                break;
+            case BITMAP:
+                getVarint(buffer);
+                int nbBytes = checkedSize(getVarint(buffer), buffer);
+                buffer.position(buffer.position() + nbBytes);
+                break;
+            case RAW:
+                int nbInts = checkedSize(buffer.getInt(), buffer);
+                buffer.position(buffer.position() + Integer.BYTES * nbInts);
+                break;
+            default:
+                throw new IllegalStateException("Unhandled values format");
+        }
+    }
+
+    private static int deltaSize(int[] sorted) {
+        int size = 1 + varintSize(sorted.length);
+        for (int i = 0; i < sorted.length; ++i) {
+            size += varintSize(i == 0 ? zigZag(sorted[0]) : sorted[i] - sorted[i - 1]);
+        }
+        return size;
+    }
+
+    private static long bitmapSize(int[] sorted) {
+        if (sorted.length == 0) {
+            return Long.MAX_VALUE;
+        }
+        long nbBytes = (span(sorted) + Byte.SIZE - 1) / Byte.SIZE;
+        return 1 + varintSize(zigZag(sorted[0])) + varintSize((int) nbBytes) + nbBytes;
+    }
+
+    private static int rawSize(int[] sorted) {
+        return 1 + Integer.BYTES * (sorted.length + 1);
+    }
+
+    private static long span(int[] sorted) {
+        return (long) sorted[sorted.length - 1] - sorted[0] + 1;
+    }
+
+    private static int zigZag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    private static int unZigZag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Size of the varint of the value read as unsigned
+     */
+    private static int varintSize(int v) {
+        return 1 + (Integer.SIZE - 1 - Integer.numberOfLeadingZeros(v | 1)) / 7;
+    }
+
+    private static void putVarint(ByteBuffer buffer, int v) {
+        while ((v & ~0x7F) != 0) {
+            buffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    private static int getVarint(ByteBuffer buffer) {
+        int v = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+            byte b = buffer.get();
+            v |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return v;
+            }
+        }
+        throw new IllegalStateException("Cannot deserialize a varint longer than an int");
+    }
+
+    /**
+     * Checks that a number of entries read from the buffer could be in it, so that a malformed datagram does
+     * not make us allocate a huge set
+     */
+    private static int checkedSize(int size, ByteBuffer buffer) {
+        if (size < 0 || size > buffer.remaining()) {
+            throw new IllegalStateException("Cannot deserialize " + size + " entries from the buffer");
+        }
+        return size;
+    }
+}
@@ -5,9 +5,9 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+
+import cs451.Messages.ValueSet;
 
 public class ConfigParser {
 
@@ -39,15 +39,15 @@ public class ConfigParser {
                 if (data.size() - 1 != p) {
                     throw new IllegalArgumentException("Config does not contain the expected number of proposals");
                 }
-                List<Set<Integer>> proposals = new ArrayList<>(p);
+                List<ValueSet> proposals = new ArrayList<>(p);
                 for (int i = 1; i < p + 1; ++i) {
                     if (data.get(i).length <= vs) {
                         int nbProposal = data.get(i).length;
-                        Set<Integer> proposal = new HashSet<>(nbProposal);
+                        ValueSet.Builder proposal = new ValueSet.Builder(ValueSet.domainFor(ds));
                         for (int j = 0; j < nbProposal; ++j) {
                             proposal.add(Integer.parseInt(data.get(i)[j]));
                         }
-                        proposals.add(proposal);
+                        proposals.add(proposal.build());
                     } else {
                         throw new IllegalArgumentException("Config contains for line " + i + " more messages than vs");
                     }
@@ -68,9 +68,9 @@ public class ConfigParser {
         private final int p;
         private final int vs;
         private final int ds;
-        private final List<Set<Integer>> proposals;
+        private final List<ValueSet> proposals;
 
-        public LatticeConfig(int p, int vs, int ds, List<Set<Integer>> proposals) {
+        public LatticeConfig(int p, int vs, int ds, List<ValueSet> proposals) {
             if (proposals == null) {
                 throw new IllegalArgumentException("Cannot have null proposals");
             }
@@ -95,7 +95,7 @@ public class ConfigParser {
             return ds;
         }
 
-        public List<Set<Integer>> getProposals() {
+        public List<ValueSet> getProposals() {
             return proposals;
         }
 
@@ -2,27 +2,30 @@ package cs451;
 
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 
 import cs451.Broadcasts.LatticeAgreement;
-import cs451.Messages.LogsBuilder;
+import cs451.Idle.IdleStrategy;
+import cs451.Messages.DecisionLog;
+import cs451.Messages.ReorderRing;
+import cs451.Messages.ValueSet;
 import cs451.Parsers.ConfigParser;
 import cs451.Parsers.ConfigParser.LatticeConfig;
 import cs451.States.LatticeState;
 import cs451.States.PlState;
 
 public class Receiver implements Runnable {
-    private final LogsBuilder logsBuilder;
+    private final DecisionLog logsBuilder;
     private final LatticeConfig latticeConfig;
-    private final ConcurrentSkipListMap<Integer, Set<Integer>> toDeliver = new ConcurrentSkipListMap<>();
     private final LatticeAgreement latticeAgreement;
-    private final AtomicInteger nextToDeliver = new AtomicInteger(0);
+    // signalled by the lattice when the next decision to log is made
+    private final IdleStrategy idle = Constants.IDLE_STRATEGY.create();
+    // decisions put back in the order of the agreements
+    private final ReorderRing<ValueSet> toDeliver = new ReorderRing<>(Constants.RECEIVER_REORDER_SLOTS, idle);
 
-    public Receiver(LogsBuilder logsBuilder, short myId, Map<Short, Host> hostsMap,
+    public Receiver(DecisionLog logsBuilder, short myId, Map<Short, Host> hostsMap,
             ConfigParser configParser, PlState plState, LatticeState latticeState)
             throws UnknownHostException, SocketException {
         this.logsBuilder = logsBuilder;
@@ -40,7 +43,7 @@ public class Receiver implements Runnable {
         if (values == null) {
             throw new IllegalArgumentException("Cannot deliver a null message");
         }
-        toDeliver.put(agreementId, Collections.unmodifiableSet(values));
+        toDeliver.offer(agreementId, ValueSet.of(values));
     }
 
     @Override
@@ -49,20 +52,11 @@ public class Receiver implements Runnable {
         latticeReceiver.start();
         try {
             while (true) {
-                int next = nextToDeliver.get();
-                if (toDeliver.containsKey(next)) {
-                    StringBuilder logLine = new StringBuilder("");
-                    for (int v : toDeliver.get(next)) {
-                        logLine.append(v + " ");
-                    }
-                    logLine.append("\n");
-                    logsBuilder.log(logLine.toString());
-                    nextToDeliver.incrementAndGet();
-                    toDeliver.remove(next);
+                if (toDeliver.drain(logsBuilder::log) > 0) {
+                    idle.reset();
                 } else {
-                    Thread.sleep(Constants.SLEEP_BEFORE_NEXT_POLL);
+                    idle.idle(TimeUnit.MILLISECONDS.toNanos(Constants.SLEEP_BEFORE_NEXT_POLL));
                 }
-                logsBuilder.tryFlush(false);
             }
         } catch (InterruptedException e) {
             System.err.println("Interrupted receiver while sleeping");
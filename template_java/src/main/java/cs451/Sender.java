@@ -4,9 +4,9 @@ import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import cs451.Broadcasts.LatticeAgreement;
+import cs451.Messages.ValueSet;
 import cs451.Parsers.ConfigParser;
 import cs451.Parsers.ConfigParser.LatticeConfig;
 import cs451.States.LatticeState;
@@ -29,11 +29,11 @@ public class Sender implements Runnable, PlStateGiver, LatticeStateGiver {
         Thread latticeSender = new Thread(latticeAgreement, "Lattice Receiver");
         latticeSender.start();
         try {
-            List<Set<Integer>> proposals = latticeConfig.getProposals();
+            List<ValueSet> proposals = latticeConfig.getProposals();
             for (int i = 0; i < proposals.size(); ++i) {
-                Set<Integer> proposal = proposals.get(i);
+                ValueSet proposal = proposals.get(i);
                 while (!latticeAgreement.propose(i, proposal)) {
-                    Thread.sleep(Constants.SLEEP_BEFORE_NEXT_POLL);
+                    latticeAgreement.waitToPropose();
                 }
             }
         } catch (InterruptedException e) {
@@ -1,61 +1,197 @@
 package cs451.States;
 
-import java.util.Collections;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import cs451.Messages.ValueSet;
+
 public class AgreementState {
+    // the agreement the state is used for, it changes when the state is recycled, read without the lock by the
+    // table lookups
+    private volatile int agreementId;
     private final AtomicBoolean active;
     private final AtomicInteger ackCount;
     private final AtomicInteger nackCount;
     private final AtomicInteger decidedCount;
+    // hosts whose decision was counted, a host suspected for a while may tell it again
+    private final BitSet decidedBy;
     private final AtomicInteger activeProposalNumber;
-    private final ConcurrentHashMap.KeySetView<Integer, Boolean> proposedValues;
-    private final ConcurrentHashMap.KeySetView<Integer, Boolean> acceptedValues;
+    // bitset domain of the value sets, the sets are immutable and replaced by their unions
+    private final int valuesDomain;
+    private ValueSet proposedValues;
+    private ValueSet acceptedValues;
+    // last proposal we sent, delta re-proposals carry the values added since
+    private ValueSet sentProposal;
+    // number and values of the last proposal received from each proposer, to rebuild their delta re-proposals
+    private final HashMap<Short, Integer> receivedProposalNumbers;
+    private final HashMap<Short, ValueSet> receivedProposals;
+    // time of our first proposal and of our last one, in nanoseconds
+    private long proposedAt;
+    private long lastProposalAt;
 
     public AgreementState(int activeProposalNumber, Set<Integer> proposedValues) {
+        this(activeProposalNumber, proposedValues, ValueSet.DEFAULT_DOMAIN);
+    }
+
+    /**
+     * @param valuesDomain : bitset domain of the value sets, see {@link ValueSet#domainFor(int)}
+     */
+    public AgreementState(int activeProposalNumber, Set<Integer> proposedValues, int valuesDomain) {
+        this(-1, activeProposalNumber, proposedValues, valuesDomain);
+    }
+
+    public AgreementState(int agreementId, int activeProposalNumber, Set<Integer> proposedValues,
+            int valuesDomain) {
+        this.agreementId = agreementId;
         this.active = new AtomicBoolean(true);
         this.ackCount = new AtomicInteger(0);
         this.nackCount = new AtomicInteger(0);
         this.decidedCount = new AtomicInteger(0);
+        this.decidedBy = new BitSet();
         this.activeProposalNumber = new AtomicInteger(activeProposalNumber);
-        this.proposedValues = ConcurrentHashMap.newKeySet(proposedValues.size());
-        for (int i : proposedValues) {
-            this.proposedValues.add(i);
-        }
-        this.acceptedValues = ConcurrentHashMap.newKeySet(proposedValues.size());
+        this.valuesDomain = valuesDomain;
+        this.proposedValues = ValueSet.of(proposedValues, valuesDomain);
+        this.acceptedValues = ValueSet.empty(valuesDomain);
+        this.sentProposal = acceptedValues;
+        this.receivedProposalNumbers = new HashMap<>();
+        this.receivedProposals = new HashMap<>();
+    }
+
+    /**
+     * Reuses the state of a forgotten agreement for a new one, as if it was just built
+     */
+    public synchronized void recycle(int agreementId, int activeProposalNumber) {
+        this.agreementId = agreementId;
+        this.active.set(true);
+        this.ackCount.set(0);
+        this.nackCount.set(0);
+        this.decidedCount.set(0);
+        this.decidedBy.clear();
+        this.activeProposalNumber.set(activeProposalNumber);
+        this.proposedValues = ValueSet.empty(valuesDomain);
+        this.acceptedValues = proposedValues;
+        this.sentProposal = proposedValues;
+        this.receivedProposalNumbers.clear();
+        this.receivedProposals.clear();
+        this.proposedAt = 0;
+        this.lastProposalAt = 0;
+    }
+
+    /**
+     * Marks the state as no longer used for its agreement, whose accepted values were recorded elsewhere
+     */
+    public synchronized void forget() {
+        this.agreementId = -1;
+    }
+
+    public int getAgreementId() {
+        return agreementId;
     }
 
     public synchronized void setProposedValues(Set<Integer> newProposedValues) {
-        this.proposedValues.clear();
-        this.proposedValues.addAll(newProposedValues);
+        this.proposedValues = ValueSet.of(newProposedValues, valuesDomain);
     }
 
     public synchronized void setAcceptedValues(Set<Integer> newProposedValues) {
-        this.acceptedValues.clear();
-        this.acceptedValues.addAll(newProposedValues);
+        this.acceptedValues = ValueSet.of(newProposedValues, valuesDomain);
     }
 
-    public Set<Integer> getProposedValues() {
-        return Collections.unmodifiableSet(this.proposedValues);
+    /**
+     * Gives the current proposed values, which later unions do not change
+     */
+    public synchronized ValueSet getProposedValues() {
+        return this.proposedValues;
     }
 
-    public Set<Integer> getAcceptedValues() {
-        return Collections.unmodifiableSet(this.acceptedValues);
+    /**
+     * Gives the current accepted values, which later unions do not change
+     */
+    public synchronized ValueSet getAcceptedValues() {
+        return this.acceptedValues;
     }
 
     public synchronized boolean unionProposedValues(Set<Integer> newProposedValues) {
-        return this.proposedValues.addAll(Collections.unmodifiableSet(newProposedValues));
+        ValueSet previous = this.proposedValues;
+        this.proposedValues = previous.union(ValueSet.of(newProposedValues, valuesDomain));
+        return this.proposedValues != previous;
     }
 
     public synchronized boolean unionAcceptedValues(Set<Integer> newProposedValues) {
-        return this.acceptedValues.addAll(Collections.unmodifiableSet(newProposedValues));
+        ValueSet previous = this.acceptedValues;
+        this.acceptedValues = previous.union(ValueSet.of(newProposedValues, valuesDomain));
+        return this.acceptedValues != previous;
     }
 
     public synchronized boolean acceptedValuesIn(Set<Integer> proposed) {
-        return proposed.containsAll(acceptedValues);
+        return ValueSet.of(proposed, valuesDomain).containsAllValues(acceptedValues);
+    }
+
+    public synchronized ValueSet getSentProposal() {
+        return sentProposal;
+    }
+
+    public synchronized void setSentProposal(ValueSet sentProposal) {
+        this.sentProposal = sentProposal;
+    }
+
+    /**
+     * Gives the number of the last proposal received from the proposer, or Integer.MIN_VALUE if none was
+     */
+    public synchronized int getReceivedProposalNumber(short proposer) {
+        return receivedProposalNumbers.getOrDefault(proposer, Integer.MIN_VALUE);
+    }
+
+    /**
+     * Records a whole proposal received from the proposer, unless a later one was already received
+     */
+    public synchronized void recordProposal(short proposer, int proposalNumber, Set<Integer> values) {
+        if (proposalNumber > getReceivedProposalNumber(proposer)) {
+            receivedProposalNumbers.put(proposer, proposalNumber);
+            receivedProposals.put(proposer, ValueSet.of(values, valuesDomain));
+        }
+    }
+
+    /**
+     * Rebuilds the whole proposal from a delta re-proposal following the last proposal received from the
+     * proposer, and records it
+     */
+    public synchronized ValueSet rebuildProposal(short proposer, int proposalNumber, Set<Integer> delta) {
+        if (getReceivedProposalNumber(proposer) != proposalNumber - 1) {
+            throw new IllegalStateException("Cannot rebuild a proposal without the previous one");
+        }
+        ValueSet proposal = receivedProposals.get(proposer).union(ValueSet.of(delta, valuesDomain));
+        receivedProposalNumbers.put(proposer, proposalNumber);
+        receivedProposals.put(proposer, proposal);
+        return proposal;
+    }
+
+    /**
+     * Drops what is only needed until we decide, keeping the accepted values to answer late proposals
+     */
+    public synchronized void retire() {
+        proposedValues = ValueSet.empty(valuesDomain);
+        sentProposal = proposedValues;
+        receivedProposalNumbers.clear();
+        receivedProposals.clear();
+    }
+
+    public synchronized long getProposedAt() {
+        return proposedAt;
+    }
+
+    public synchronized void setProposedAt(long proposedAt) {
+        this.proposedAt = proposedAt;
+    }
+
+    public synchronized long getLastProposalAt() {
+        return lastProposalAt;
+    }
+
+    public synchronized void setLastProposalAt(long lastProposalAt) {
+        this.lastProposalAt = lastProposalAt;
     }
 
     public boolean getActive() {
@@ -98,6 +234,27 @@ public class AgreementState {
         decidedCount.incrementAndGet();
     }
 
+    /**
+     * Counts the decision of the host, unless it was already counted
+     *
+     * @return true if it was not counted yet
+     */
+    public synchronized boolean decidedBy(short host) {
+        if (decidedBy.get(host)) {
+            return false;
+        }
+        decidedBy.set(host);
+        decidedCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Gives a copy of the hosts whose decision was counted
+     */
+    public synchronized BitSet getDecidedBy() {
+        return (BitSet) decidedBy.clone();
+    }
+
     public int getActiveProposalNumber() {
         return activeProposalNumber.get();
     }
@@ -107,8 +264,8 @@ public class AgreementState {
     }
 
     @Override
-    public String toString() {
-        return "AgreementState [active=" + active + ", ackCount=" + ackCount + ", nackCount=" + nackCount
+    public synchronized String toString() {
+        return "AgreementState [agreementId=" + agreementId + ", active=" + active + ", ackCount=" + ackCount + ", nackCount=" + nackCount
                 + ", decidedCount=" + decidedCount + ", activeProposalNumber=" + activeProposalNumber
                 + ", proposedValues=" + proposedValues + ", acceptedValues=" + acceptedValues + "]";
     }
@@ -0,0 +1,290 @@
+package cs451.States;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import cs451.Constants;
+import cs451.Messages.ValueSet;
+
+/**
+ * States of the agreements from the window bottom, in a ring of slots indexed by agreement id, followed by the
+ * last retired agreements in a second ring. The states of forgotten agreements are recycled for new ones, only
+ * their accepted values and the hosts which decided them are kept in a third ring, to keep answering the
+ * proposals of late hosts. Callers must check under the lock of a state that it is still used for their
+ * agreement.
+ *
+ * The lookups take no lock : the slots are read with volatile semantics and a lookup is retried if the bottom
+ * or the live slots changed meanwhile. The lock is only taken to add, grow and retire.
+ */
+public class AgreementTable {
+    private final int valuesDomain;
+    // agreements added and not yet decided by us
+    private final AtomicInteger windowSize;
+    // live agreements from the bottom, at their id modulo the length which is a power of two, replaced when
+    // grown
+    private volatile AtomicReferenceArray<AgreementState> live;
+    private final AtomicReferenceArray<AgreementState> retired;
+    private final ArrayDeque<AgreementState> recycled;
+    private volatile int bottom;
+    // accepted values of the forgotten agreements from forgottenFrom to forgottenTo, and the hosts which decided
+    // them, at their id modulo the length, guarded by forgottenLock
+    private final ValueSet[] forgottenAccepted;
+    private final BitSet[] forgottenDecidedBy;
+    private int forgottenFrom;
+    private int forgottenTo;
+    private final Object forgottenLock;
+
+    /**
+     * @param liveSlots    : initial number of live agreements, grown if an agreement further from the bottom
+     *                     is added
+     * @param retiredSlots : number of retired agreements kept before being forgotten, and of forgotten ones
+     *                     recorded
+     */
+    public AgreementTable(int liveSlots, int retiredSlots, int valuesDomain, AtomicInteger windowSize) {
+        if (liveSlots <= 0 || retiredSlots <= 0 || windowSize == null) {
+            throw new IllegalArgumentException("Cannot have an agreement table without slots");
+        }
+        this.valuesDomain = valuesDomain;
+        this.windowSize = windowSize;
+        this.live = new AtomicReferenceArray<>(ceilPowerOfTwo(liveSlots));
+        this.retired = new AtomicReferenceArray<>(retiredSlots);
+        this.recycled = new ArrayDeque<>();
+        this.bottom = 0;
+        this.forgottenAccepted = new ValueSet[retiredSlots];
+        this.forgottenDecidedBy = new BitSet[retiredSlots];
+        this.forgottenFrom = 0;
+        this.forgottenTo = 0;
+        this.forgottenLock = new Object();
+    }
+
+    /**
+     * Gives the number of retired agreements whose whole state fits in the share of the heap given to them
+     */
+    public static int retiredSlotsFor(int valuesDomain) {
+        // an accepted values set takes at most a bit per value of the domain
+        long bytesPerAgreement = Constants.LATTICE_AGREEMENT_STATE_BYTES + valuesDomain / Byte.SIZE;
+        long slots = (long) (Constants.LATTICE_RETIRED_MEMORY * Runtime.getRuntime().maxMemory()) / bytesPerAgreement;
+        return (int) Long.max(Constants.LATTICE_MIN_RETIRED_HISTORY,
+                Long.min(Constants.LATTICE_MAX_RETIRED_HISTORY, slots));
+    }
+
+    /**
+     * Gives the state of a live or retired agreement, or null if there is none
+     */
+    public AgreementState get(int agreementId) {
+        if (agreementId < 0) {
+            return null;
+        }
+        while (true) {
+            int from = bottom;
+            AtomicReferenceArray<AgreementState> slots = live;
+            AgreementState ag;
+            if (agreementId >= from) {
+                ag = agreementId - from < slots.length() ? slots.get(agreementId & (slots.length() - 1)) : null;
+            } else {
+                ag = from - agreementId <= retired.length() ? retired.get(agreementId % retired.length()) : null;
+            }
+            if (from == bottom && slots == live) {
+                // the slot of an agreement being forgotten may already hold the retired one replacing it
+                return ag != null && ag.getAgreementId() == agreementId ? ag : null;
+            }
+        }
+    }
+
+    public boolean isLive(int agreementId) {
+        return agreementId >= bottom && get(agreementId) != null;
+    }
+
+    /**
+     * Gives the state of the agreement, adding it to the window if we did not know about it yet. Once we moved
+     * on from it, gives its retired state, or null if it was forgotten.
+     */
+    public AgreementState getOrAdd(int agreementId, int activeProposalNumber) {
+        AgreementState ag = get(agreementId);
+        if (ag != null || agreementId < bottom) {
+            return ag;
+        }
+        return add(agreementId, activeProposalNumber);
+    }
+
+    private synchronized AgreementState add(int agreementId, int activeProposalNumber) {
+        AgreementState ag = get(agreementId);
+        if (ag != null || agreementId < bottom) {
+            return ag;
+        }
+        if (agreementId - bottom >= live.length()) {
+            grow(agreementId - bottom + 1);
+        }
+        ag = recycled.poll();
+        if (ag == null) {
+            ag = new AgreementState(agreementId, activeProposalNumber, Collections.emptySet(), valuesDomain);
+        } else {
+            ag.recycle(agreementId, activeProposalNumber);
+        }
+        live.set(agreementId & (live.length() - 1), ag);
+        windowSize.incrementAndGet();
+        return ag;
+    }
+
+    /**
+     * Retires the agreement at the bottom if we decided it and more than the given number of hosts did, dropping
+     * the record of the oldest forgotten agreement when there is no room left
+     *
+     * @return true if it was retired
+     */
+    public boolean retireBottom(int decidedQuorum) {
+        return retireBottom(decidedQuorum, decidedBy -> true);
+    }
+
+    /**
+     * Retires the agreement at the bottom if we decided it and more than the given number of hosts did. When the
+     * record of the forgotten agreements is full, the oldest one is dropped only if the predicate accepts the
+     * hosts which decided it, otherwise the agreement is not retired.
+     *
+     * @return true if it was retired
+     */
+    public synchronized boolean retireBottom(int decidedQuorum, Predicate<BitSet> droppable) {
+        int slot = bottom & (live.length() - 1);
+        AgreementState ag = live.get(slot);
+        if (ag == null || ag.getActive() || ag.getDecidedCount() <= decidedQuorum) {
+            return false;
+        }
+        // takes the slot of the agreement forgotten
+        AgreementState forgotten = retired.get(bottom % retired.length());
+        if (forgotten != null && !makeRoomForgotten(droppable)) {
+            return false;
+        }
+        ag.retire();
+        if (forgotten != null) {
+            synchronized (forgotten) {
+                // handlers still holding the state see it was forgotten and answer from the record
+                recordForgotten(bottom - retired.length(), forgotten.getAcceptedValues(), forgotten.getDecidedBy());
+                forgotten.forget();
+            }
+            recycled.add(forgotten);
+        }
+        // the agreement is in the retired slots before the bottom moves, and in the live ones until it moved, so
+        // that lookups always find it
+        retired.set(bottom % retired.length(), ag);
+        ++bottom;
+        live.set(slot, null);
+        return true;
+    }
+
+    /**
+     * Gives the live agreements to the action, which must not call the table
+     */
+    public synchronized void forEachLive(Consumer<AgreementState> action) {
+        for (int id = bottom; id < bottom + live.length(); ++id) {
+            AgreementState ag = live.get(id & (live.length() - 1));
+            if (ag != null) {
+                action.accept(ag);
+            }
+        }
+    }
+
+    public int getBottom() {
+        return bottom;
+    }
+
+    public int getRetiredSlots() {
+        return retired.length();
+    }
+
+    /**
+     * Gives the lowest forgotten agreement still recorded
+     */
+    public int getForgottenFrom() {
+        synchronized (forgottenLock) {
+            return forgottenFrom;
+        }
+    }
+
+    /**
+     * Answers a proposal for a forgotten agreement as an acceptor : the accepted values become the proposal
+     * if they are all in it, the union of both otherwise
+     *
+     * @return the accepted values after the proposal, to be acknowledged if they are all in the proposal, or
+     *         null if the agreement is not recorded
+     */
+    public ValueSet acceptForgotten(int agreementId, ValueSet proposal) {
+        synchronized (forgottenLock) {
+            if (agreementId < forgottenFrom || agreementId >= forgottenTo) {
+                return null;
+            }
+            int slot = agreementId % forgottenAccepted.length;
+            ValueSet accepted = forgottenAccepted[slot];
+            accepted = proposal.containsAllValues(accepted) ? proposal : accepted.union(proposal);
+            forgottenAccepted[slot] = accepted;
+            return accepted;
+        }
+    }
+
+    /**
+     * Records that the host decided a forgotten agreement, if it is still recorded
+     */
+    public void decidedForgotten(int agreementId, short host) {
+        synchronized (forgottenLock) {
+            if (agreementId >= forgottenFrom && agreementId < forgottenTo) {
+                forgottenDecidedBy[agreementId % forgottenDecidedBy.length].set(host);
+            }
+        }
+    }
+
+    /**
+     * Drops the oldest forgotten agreement if the record is full and the predicate accepts the hosts which
+     * decided it
+     *
+     * @return true if there is room for a new one
+     */
+    private boolean makeRoomForgotten(Predicate<BitSet> droppable) {
+        synchronized (forgottenLock) {
+            if (forgottenTo - forgottenFrom < forgottenAccepted.length) {
+                return true;
+            }
+            int slot = forgottenFrom % forgottenAccepted.length;
+            if (!droppable.test(forgottenDecidedBy[slot])) {
+                return false;
+            }
+            forgottenAccepted[slot] = null;
+            forgottenDecidedBy[slot] = null;
+            ++forgottenFrom;
+            return true;
+        }
+    }
+
+    private void recordForgotten(int agreementId, ValueSet accepted, BitSet decidedBy) {
+        synchronized (forgottenLock) {
+            if (agreementId != forgottenTo || forgottenTo - forgottenFrom == forgottenAccepted.length) {
+                throw new IllegalStateException("Agreements must be forgotten in order, once there is room");
+            }
+            forgottenAccepted[agreementId % forgottenAccepted.length] = accepted;
+            forgottenDecidedBy[agreementId % forgottenDecidedBy.length] = decidedBy;
+            ++forgottenTo;
+        }
+    }
+
+    private void grow(int minSlots) {
+        AtomicReferenceArray<AgreementState> grown = new AtomicReferenceArray<>(ceilPowerOfTwo(minSlots));
+        for (int id = bottom; id < bottom + live.length(); ++id) {
+            grown.set(id & (grown.length() - 1), live.get(id & (live.length() - 1)));
+        }
+        live = grown;
+    }
+
+    private static int ceilPowerOfTwo(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AgreementTable [bottom=" + bottom + ", liveSlots=" + live.length() + ", retiredSlots="
+                + retired.length() + ", recycled=" + recycled.size() + ", forgotten=" + forgottenFrom + ".." + forgottenTo
+                + "]";
+    }
+}
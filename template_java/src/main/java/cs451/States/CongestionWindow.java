@@ -0,0 +1,85 @@
+package cs451.States;
+
+import cs451.Constants;
+
+/**
+ * AIMD congestion window bounding the number of messages in flight towards a peer : it grows with every
+ * acknowledged message and is halved once per loss episode
+ */
+public class CongestionWindow {
+    private final int maxSize;
+    private double size;
+    private double slowStartThreshold;
+    private int inFlight;
+    private long lastDecrease;
+
+    /**
+     * @param maxSize : the window never grows beyond this number of messages in flight
+     */
+    public CongestionWindow(int maxSize) {
+        if (maxSize < Constants.PL_MIN_CWND) {
+            throw new IllegalArgumentException("Cannot have a maximum window smaller than the minimum one");
+        }
+        this.maxSize = maxSize;
+        this.size = Integer.min(Constants.PL_INITIAL_CWND, maxSize);
+        this.slowStartThreshold = maxSize;
+        this.inFlight = 0;
+        this.lastDecrease = Long.MIN_VALUE;
+    }
+
+    public synchronized boolean canSend() {
+        return inFlight < (int) size;
+    }
+
+    /**
+     * Records a message sent for the first time
+     */
+    public synchronized void sent() {
+        ++inFlight;
+    }
+
+    /**
+     * Records a message acknowledged for the first time, it grows exponentially in slow start and by one
+     * message per window of acknowledged messages afterwards
+     */
+    public synchronized void acked() {
+        inFlight = Integer.max(inFlight - 1, 0);
+        if (size < slowStartThreshold) {
+            size += 1;
+        } else {
+            size += 1 / size;
+        }
+        size = Double.min(size, maxSize);
+    }
+
+    /**
+     * Records a loss, only the first one of the messages in flight at the time of the last decrease shrinks
+     * the window
+     *
+     * @param timeOfSending : time at which the lost message was sent
+     * @param now           : the current time
+     */
+    public synchronized void lost(long timeOfSending, long now) {
+        if (timeOfSending < lastDecrease) {
+            // same loss episode as the last decrease
+            return;
+        }
+        slowStartThreshold = Double.max(size / 2, Constants.PL_MIN_CWND);
+        size = slowStartThreshold;
+        lastDecrease = now;
+    }
+
+    public synchronized int getSize() {
+        return (int) size;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CongestionWindow [size=" + size + ", slowStartThreshold=" + slowStartThreshold + ", inFlight="
+                + inFlight + "]";
+    }
+}
@@ -1,29 +1,35 @@
 package cs451.States;
 
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import cs451.Idle.IdleStrategy;
 import cs451.Messages.Message;
 
 public class LatticeState {
-    private final ConcurrentSkipListMap<Integer, AgreementState> agreements;
+    private final AgreementTable agreements;
     private final AtomicInteger windowSize;
-    private final AtomicInteger windowBottom;
     private final ConcurrentLinkedQueue<Message> toBroadcast;
     private final ConcurrentLinkedQueue<Message> toDeliver;
+    private final IdleStrategy proposeIdle;
+    private final IdleStrategy broadcastIdle;
+    private final IdleStrategy deliverIdle;
+    private final WindowController window;
 
-    public LatticeState(ConcurrentSkipListMap<Integer, AgreementState> agreements, AtomicInteger windowSize,
-            AtomicInteger windowBottom, ConcurrentLinkedQueue<Message> toBroadcast,
-            ConcurrentLinkedQueue<Message> toDeliver) {
+    public LatticeState(AgreementTable agreements, AtomicInteger windowSize, ConcurrentLinkedQueue<Message> toBroadcast,
+            ConcurrentLinkedQueue<Message> toDeliver, IdleStrategy proposeIdle, IdleStrategy broadcastIdle,
+            IdleStrategy deliverIdle, WindowController window) {
         this.agreements = agreements;
         this.windowSize = windowSize;
-        this.windowBottom = windowBottom;
         this.toBroadcast = toBroadcast;
         this.toDeliver = toDeliver;
+        this.proposeIdle = proposeIdle;
+        this.broadcastIdle = broadcastIdle;
+        this.deliverIdle = deliverIdle;
+        this.window = window;
     }
 
-    public ConcurrentSkipListMap<Integer, AgreementState> getAgreements() {
+    public AgreementTable getAgreements() {
         return agreements;
     }
 
@@ -31,10 +37,6 @@ public class LatticeState {
         return windowSize;
     }
 
-    public AtomicInteger getWindowBottom() {
-        return windowBottom;
-    }
-
     public ConcurrentLinkedQueue<Message> getToBroadcast() {
         return toBroadcast;
     }
@@ -43,4 +45,20 @@ public class LatticeState {
         return toDeliver;
     }
 
+    public IdleStrategy getProposeIdle() {
+        return proposeIdle;
+    }
+
+    public IdleStrategy getBroadcastIdle() {
+        return broadcastIdle;
+    }
+
+    public IdleStrategy getDeliverIdle() {
+        return deliverIdle;
+    }
+
+    public WindowController getWindow() {
+        return window;
+    }
+
 }
@@ -0,0 +1,225 @@
+package cs451.States;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import cs451.Constants;
+import cs451.Messages.DatagramBatch;
+import cs451.Messages.MessageToBeSent;
+import cs451.Messages.SeqWindow;
+import cs451.Messages.TimerWheel;
+
+/**
+ * State of the perfect link towards one peer. The batch, the waiting queue, the next sequence number and the
+ * purged decisions are only used by the sender PL, the windows, the pending ACK, the RTT estimation and the congestion window
+ * are shared with the receiver PL.
+ */
+public class PeerState {
+    private final short id;
+    private final DatagramBatch batch;
+    private final ArrayDeque<MessageToBeSent> waiting;
+    private final SeqWindow acked;
+    private final SeqWindow received;
+    private final AtomicLong ackPendingSince;
+    // time of the first transmission of the messages in flight, 0 once a message was sent again
+    private final AtomicLongArray sentAt;
+    // messages in flight indexed by sequence number, to cancel their retransmission once acknowledged
+    private final AtomicReferenceArray<MessageToBeSent> inFlight;
+    private final TimerWheel retransmissions;
+    private final RttEstimator rtt;
+    private final CongestionWindow cwnd;
+    private int nextSeq;
+    private long newestAckedSentAt;
+    // time in milliseconds of the last datagram received from the peer
+    private final AtomicLong lastHeardFrom;
+    // agreements from purgedDecisionsFrom to purgedDecisionsTo whose decision was dropped while the peer was
+    // suspected, some may have been sent before
+    private int purgedDecisionsFrom;
+    private int purgedDecisionsTo;
+
+    public PeerState(short id, int mtu, int maxMsgSize, int windowSize, TimerWheel retransmissions) {
+        if (retransmissions == null) {
+            throw new IllegalArgumentException("Cannot have a null timer wheel");
+        }
+        this.id = id;
+        this.batch = new DatagramBatch(mtu, maxMsgSize);
+        this.waiting = new ArrayDeque<>();
+        this.acked = new SeqWindow(windowSize);
+        this.received = new SeqWindow(windowSize);
+        this.ackPendingSince = new AtomicLong(0);
+        this.sentAt = new AtomicLongArray(windowSize);
+        this.inFlight = new AtomicReferenceArray<>(windowSize);
+        this.retransmissions = retransmissions;
+        this.rtt = new RttEstimator();
+        this.cwnd = new CongestionWindow(windowSize);
+        this.nextSeq = 0;
+        this.lastHeardFrom = new AtomicLong(System.currentTimeMillis());
+        this.purgedDecisionsFrom = 0;
+        this.purgedDecisionsTo = 0;
+    }
+
+    public short getId() {
+        return id;
+    }
+
+    public DatagramBatch getBatch() {
+        return batch;
+    }
+
+    public ArrayDeque<MessageToBeSent> getWaiting() {
+        return waiting;
+    }
+
+    public SeqWindow getAcked() {
+        return acked;
+    }
+
+    public SeqWindow getReceived() {
+        return received;
+    }
+
+    /**
+     * Gives the retransmission timers, shared with the other peers
+     */
+    public TimerWheel getRetransmissions() {
+        return retransmissions;
+    }
+
+    /**
+     * Tells whether a new sequence number can be given without overflowing the peer's receive window or the
+     * congestion window
+     */
+    public boolean canSendNew() {
+        return cwnd.canSend() && acked.inWindow(nextSeq);
+    }
+
+    public int takeNextSeq() {
+        return nextSeq++;
+    }
+
+    /**
+     * Records the transmission of a message, only first transmissions give a RTT sample once acknowledged
+     */
+    public void sent(MessageToBeSent m, long nowNanos) {
+        int idx = Math.floorMod(m.getSeq(), sentAt.length());
+        sentAt.set(idx, m.getTransmissions() == 1 ? nowNanos : 0);
+        inFlight.set(idx, m);
+        if (m.getTransmissions() == 1) {
+            cwnd.sent();
+        }
+    }
+
+    /**
+     * Records that a message to this peer, or the datagram carrying it, was lost
+     *
+     * @param timeOfSending : time at which the lost message was sent
+     * @param now           : the current time
+     */
+    public void lost(long timeOfSending, long now) {
+        cwnd.lost(timeOfSending, now);
+    }
+
+    /**
+     * Adds the content of an ACK frame to the acknowledged window, cancels the retransmission of the messages
+     * it acknowledges and samples the RTT with the most recently sent one
+     */
+    public void receiveAck(ByteBuffer frame, long nowNanos) {
+        newestAckedSentAt = 0;
+        acked.addFrom(frame, seq -> {
+            int idx = Math.floorMod(seq, sentAt.length());
+            long seqSentAt = sentAt.get(idx);
+            if (seqSentAt != 0 && seqSentAt > newestAckedSentAt) {
+                newestAckedSentAt = seqSentAt;
+            }
+            MessageToBeSent m = inFlight.getAndSet(idx, null);
+            if (m != null && m.getSeq() == seq) {
+                retransmissions.cancel(m);
+                // the serialized bytes go back to the pool once no retransmission can use them
+                m.getSerializedMsg().release();
+            }
+            cwnd.acked();
+        });
+        if (newestAckedSentAt != 0) {
+            rtt.sample(nowNanos - newestAckedSentAt);
+        }
+    }
+
+    /**
+     * Gives the timeout before sending again a message to this peer
+     *
+     * @param transmissions : number of times the message was sent
+     */
+    public long getRto(int transmissions) {
+        return rtt.getRto(transmissions);
+    }
+
+    /**
+     * Records that a message was received from this peer and should be acknowledged
+     */
+    public void ackNeeded(long now) {
+        ackPendingSince.compareAndSet(0, now);
+    }
+
+    /**
+     * Records that a datagram was received from the peer
+     */
+    public void heardFrom(long now) {
+        lastHeardFrom.set(now);
+    }
+
+    /**
+     * Tells whether the peer has been silent long enough to be suspected to have crashed. It may only be slow
+     * or paused, and be heard from again.
+     */
+    public boolean isSuspected(long now) {
+        return now - lastHeardFrom.get() > Constants.PL_SUSPECT_TIMEOUT;
+    }
+
+    /**
+     * Records that our decision of the agreement was dropped instead of being sent to the suspected peer
+     */
+    public void purgedDecision(int agreementId) {
+        if (!hasPurgedDecisions()) {
+            purgedDecisionsFrom = agreementId;
+            purgedDecisionsTo = agreementId + 1;
+        } else {
+            purgedDecisionsFrom = Integer.min(purgedDecisionsFrom, agreementId);
+            purgedDecisionsTo = Integer.max(purgedDecisionsTo, agreementId + 1);
+        }
+    }
+
+    public boolean hasPurgedDecisions() {
+        return purgedDecisionsFrom < purgedDecisionsTo;
+    }
+
+    /**
+     * Gives the lowest agreement whose decision was dropped, to be told again to the peer
+     */
+    public int pollPurgedDecision() {
+        if (!hasPurgedDecisions()) {
+            throw new IllegalStateException("No decision was dropped");
+        }
+        return purgedDecisionsFrom++;
+    }
+
+    public long getAckPendingSince() {
+        return ackPendingSince.get();
+    }
+
+    /**
+     * Clears the pending ACK, to be called before writing the received window in an ACK frame so that a
+     * message received meanwhile sets it again
+     */
+    public void clearAckPending() {
+        ackPendingSince.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "PeerState [id=" + id + ", nextSeq=" + nextSeq + ", acked=" + acked + ", received=" + received
+                + ", rtt=" + rtt + ", cwnd=" + cwnd + "]";
+    }
+}
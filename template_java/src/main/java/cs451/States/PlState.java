@@ -1,36 +1,65 @@
 package cs451.States;
 
-import java.net.DatagramSocket;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.Selector;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import cs451.Messages.ConcurrentLowMemoryMsgSet;
+import cs451.Idle.IdleStrategy;
+import cs451.Messages.BufferPool;
 import cs451.Messages.MessageToBeSent;
 
 public class PlState {
-    private final DatagramSocket plSocket;
-    private final ConcurrentLowMemoryMsgSet plAcked;
+    private final DatagramChannel plChannel;
+    private final Selector plSelector;
+    private final PeerState[] plPeers;
     private final ConcurrentLinkedQueue<MessageToBeSent> plToSend;
+    private final BufferPool plBufferPool;
+    private final IdleStrategy plSenderIdle;
+    private final AtomicInteger plForgottenBefore;
 
-    public PlState(DatagramSocket plSocket,
-            ConcurrentLowMemoryMsgSet plAcked, ConcurrentLinkedQueue<MessageToBeSent> plToSend) {
-        if (plSocket == null || plAcked == null || plToSend == null) {
+    public PlState(DatagramChannel plChannel, Selector plSelector,
+            PeerState[] plPeers, ConcurrentLinkedQueue<MessageToBeSent> plToSend, BufferPool plBufferPool,
+            IdleStrategy plSenderIdle, AtomicInteger plForgottenBefore) {
+        if (plChannel == null || plSelector == null || plPeers == null || plToSend == null
+                || plBufferPool == null || plSenderIdle == null || plForgottenBefore == null) {
             throw new IllegalArgumentException("Cannot make plState with null argument");
         }
-        this.plSocket = plSocket;
-        this.plAcked = plAcked;
+        this.plChannel = plChannel;
+        this.plSelector = plSelector;
+        this.plPeers = plPeers;
         this.plToSend = plToSend;
+        this.plBufferPool = plBufferPool;
+        this.plSenderIdle = plSenderIdle;
+        this.plForgottenBefore = plForgottenBefore;
     }
 
-    public DatagramSocket getPlSocket() {
-        return plSocket;
+    public DatagramChannel getPlChannel() {
+        return plChannel;
     }
 
-    public ConcurrentLowMemoryMsgSet getPlAcked() {
-        return plAcked;
+    public Selector getPlSelector() {
+        return plSelector;
+    }
+
+    public PeerState[] getPlPeers() {
+        return plPeers;
     }
 
     public ConcurrentLinkedQueue<MessageToBeSent> getPlToSend() {
         return plToSend;
     }
 
+    public BufferPool getPlBufferPool() {
+        return plBufferPool;
+    }
+
+    public IdleStrategy getPlSenderIdle() {
+        return plSenderIdle;
+    }
+
+    public AtomicInteger getPlForgottenBefore() {
+        return plForgottenBefore;
+    }
+
 }
@@ -0,0 +1,59 @@
+package cs451.States;
+
+import cs451.Constants;
+
+/**
+ * Estimates the round trip time to a peer with the Jacobson/Karels smoothed mean and variance to derive its
+ * retransmission timeout
+ */
+public class RttEstimator {
+    // beyond this many doublings the timeout is capped anyway
+    private static final int MAX_BACKOFF_SHIFT = 20;
+
+    private long srtt;
+    private long rttVar;
+    private boolean hasSample;
+    private volatile long rto;
+
+    public RttEstimator() {
+        this.hasSample = false;
+        this.rto = Constants.PL_TIMEOUT_BEFORE_RESEND;
+    }
+
+    /**
+     * Updates the estimation with a new measure of the round trip time
+     *
+     * @param rttNanos : time between the first transmission of a message and its acknowledgement
+     */
+    public synchronized void sample(long rttNanos) {
+        if (rttNanos < 0) {
+            throw new IllegalArgumentException("Cannot have a negative round trip time");
+        }
+        if (!hasSample) {
+            srtt = rttNanos;
+            rttVar = rttNanos / 2;
+            hasSample = true;
+        } else {
+            // rttVar <- 3/4 rttVar + 1/4 |srtt - rtt| and srtt <- 7/8 srtt + 1/8 rtt
+            rttVar += (Math.abs(srtt - rttNanos) - rttVar) / 4;
+            srtt += (rttNanos - srtt) / 8;
+        }
+        long rtoMillis = (srtt + 4 * rttVar + 500_000) / 1_000_000;
+        rto = Long.min(Long.max(rtoMillis, Constants.PL_MIN_RTO), Constants.PL_MAX_RTO);
+    }
+
+    /**
+     * Gives the timeout before sending a message again, doubled for each time it was already sent
+     *
+     * @param transmissions : number of times the message was sent
+     */
+    public long getRto(int transmissions) {
+        int backoff = Integer.min(Integer.max(transmissions - 1, 0), MAX_BACKOFF_SHIFT);
+        return Long.min(rto << backoff, Constants.PL_MAX_RTO);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RttEstimator [srtt=" + srtt + ", rttVar=" + rttVar + ", rto=" + rto + "]";
+    }
+}
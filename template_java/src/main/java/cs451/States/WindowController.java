@@ -0,0 +1,101 @@
+package cs451.States;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import cs451.Constants;
+
+/**
+ * Bounds the number of agreements in flight : the window grows by one agreement per window of healthy
+ * decisions, and is halved at most once per window of decisions when decisions get slow, messages get
+ * retransmitted or the memory runs low
+ */
+public class WindowController {
+    private final int minSize;
+    private final int maxSize;
+    private double size;
+    private int decidedSinceDecrease;
+    // lowest decision latency seen, the latency of agreements not slowed down by the others in flight
+    private long minLatency;
+    private final AtomicLong transmissions;
+    private final AtomicLong retransmissions;
+    // transmission counters when the retransmission ratio was last measured
+    private long lastTransmissions;
+    private long lastRetransmissions;
+    private double retransmissionRatio;
+
+    public WindowController() {
+        this(Constants.LATTICE_MIN_WINDOW, Constants.LATTICE_MAX_WINDOW);
+    }
+
+    public WindowController(int minSize, int maxSize) {
+        if (minSize <= 0 || maxSize < minSize) {
+            throw new IllegalArgumentException("Cannot have a window with these bounds");
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.size = minSize;
+        this.decidedSinceDecrease = 0;
+        this.minLatency = Long.MAX_VALUE;
+        this.transmissions = new AtomicLong(0);
+        this.retransmissions = new AtomicLong(0);
+        this.lastTransmissions = 0;
+        this.lastRetransmissions = 0;
+        this.retransmissionRatio = 0;
+    }
+
+    /**
+     * Records a message handed to the network by the PL
+     */
+    public void transmitted(boolean retransmission) {
+        transmissions.incrementAndGet();
+        if (retransmission) {
+            retransmissions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records an agreement we decided
+     *
+     * @param latencyNanos : time between our proposal and the decision
+     */
+    public synchronized void decided(long latencyNanos) {
+        minLatency = Long.min(minLatency, latencyNanos);
+        ++decidedSinceDecrease;
+        updateRetransmissionRatio();
+        boolean congested = latencyNanos > Constants.LATTICE_WINDOW_LATENCY_FACTOR * minLatency
+                || retransmissionRatio > Constants.LATTICE_WINDOW_MAX_RETRANSMISSIONS || memoryLow();
+        if (!congested) {
+            size = Double.min(maxSize, size + 1 / size);
+        } else if (decidedSinceDecrease >= size) {
+            // the agreements decided since the last decrease were proposed before it took effect
+            size = Double.max(minSize, size / 2);
+            decidedSinceDecrease = 0;
+        }
+    }
+
+    public synchronized int getSize() {
+        return (int) size;
+    }
+
+    private void updateRetransmissionRatio() {
+        long sent = transmissions.get();
+        long resent = retransmissions.get();
+        if (sent - lastTransmissions >= Constants.LATTICE_WINDOW_MIN_SAMPLE) {
+            retransmissionRatio = (double) (resent - lastRetransmissions) / (sent - lastTransmissions);
+            lastTransmissions = sent;
+            lastRetransmissions = resent;
+        }
+    }
+
+    private static boolean memoryLow() {
+        Runtime runtime = Runtime.getRuntime();
+        long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        return free < Constants.LATTICE_WINDOW_MIN_FREE_MEMORY * runtime.maxMemory();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "WindowController [size=" + size + ", minSize=" + minSize + ", maxSize=" + maxSize
+                + ", minLatency=" + minLatency + ", retransmissionRatio=" + retransmissionRatio + "]";
+    }
+}
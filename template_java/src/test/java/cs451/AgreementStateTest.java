@@ -0,0 +1,49 @@
+package cs451;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Test;
+
+import cs451.States.AgreementState;
+
+public class AgreementStateTest {
+
+    @Test
+    public void testRebuildDeltaProposals() {
+        AgreementState ag = new AgreementState(0, Collections.emptySet());
+        short proposer = 2;
+        assertEquals(Integer.MIN_VALUE, ag.getReceivedProposalNumber(proposer));
+        ag.recordProposal(proposer, 1, Set.of(1, 2));
+        assertEquals(Set.of(1, 2, 5), ag.rebuildProposal(proposer, 2, Set.of(5)));
+        assertEquals(Set.of(1, 2, 5, 7), ag.rebuildProposal(proposer, 3, Set.of(7)));
+        // an outdated whole proposal does not replace the rebuilt one
+        ag.recordProposal(proposer, 2, Set.of(1, 2, 5));
+        assertEquals(3, ag.getReceivedProposalNumber(proposer));
+        assertEquals(Set.of(1, 2, 5, 7, 8), ag.rebuildProposal(proposer, 4, Set.of(8)));
+    }
+
+    @Test
+    public void testDecisionCountedOncePerHost() {
+        AgreementState ag = new AgreementState(0, Collections.emptySet());
+        assertTrue(ag.decidedBy((short) 2));
+        // told again after being suspected
+        assertFalse(ag.decidedBy((short) 2));
+        assertTrue(ag.decidedBy((short) 3));
+        assertEquals(2, ag.getDecidedCount());
+        ag.recycle(1, 0);
+        assertTrue(ag.decidedBy((short) 2));
+        assertEquals(1, ag.getDecidedCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCannotRebuildWithoutPreviousProposal() {
+        AgreementState ag = new AgreementState(0, Collections.emptySet());
+        ag.recordProposal((short) 3, 1, Set.of(1));
+        ag.rebuildProposal((short) 3, 3, Set.of(2));
+    }
+}
@@ -0,0 +1,150 @@
+package cs451;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import cs451.Messages.ValueSet;
+import cs451.States.AgreementState;
+import cs451.States.AgreementTable;
+
+public class AgreementTableTest {
+
+    private static void decide(AgreementState ag, int nbDecided) {
+        ag.deactivate();
+        for (int i = 0; i < nbDecided; ++i) {
+            ag.incrementDecidedCount();
+        }
+    }
+
+    @Test
+    public void testAddAndGrow() {
+        AtomicInteger windowSize = new AtomicInteger(0);
+        AgreementTable table = new AgreementTable(4, 8, ValueSet.DEFAULT_DOMAIN, windowSize);
+        AgreementState first = table.getOrAdd(0, 0);
+        assertSame(first, table.getOrAdd(0, 3));
+        assertEquals(1, windowSize.get());
+        // further than the initial slots from the bottom
+        AgreementState far = table.getOrAdd(10, 2);
+        assertEquals(10, far.getAgreementId());
+        assertEquals(2, far.getActiveProposalNumber());
+        assertSame(first, table.get(0));
+        assertSame(far, table.get(10));
+        assertNull(table.get(5));
+        assertTrue(table.isLive(10));
+        assertFalse(table.isLive(5));
+        assertEquals(2, windowSize.get());
+    }
+
+    @Test
+    public void testRetireAndRecycle() {
+        AgreementTable table = new AgreementTable(4, 2, ValueSet.DEFAULT_DOMAIN, new AtomicInteger(0));
+        AgreementState first = table.getOrAdd(0, 0);
+        assertFalse(table.retireBottom(1));
+        decide(first, 1);
+        // we need more than the quorum of hosts to decide it
+        assertFalse(table.retireBottom(1));
+        first.incrementDecidedCount();
+        assertTrue(table.retireBottom(1));
+        assertEquals(1, table.getBottom());
+        // retired agreements are still answered, but cannot come back to the window
+        assertSame(first, table.get(0));
+        assertSame(first, table.getOrAdd(0, 0));
+        assertFalse(table.isLive(0));
+        for (int id = 1; id < 3; ++id) {
+            decide(table.getOrAdd(id, 0), 2);
+            assertTrue(table.retireBottom(1));
+        }
+        // the first agreement was forgotten, its state is used for the next one
+        assertNull(table.get(0));
+        AgreementState recycled = table.getOrAdd(3, 1);
+        assertSame(first, recycled);
+        assertEquals(3, recycled.getAgreementId());
+        assertTrue(recycled.getActive());
+        assertEquals(0, recycled.getDecidedCount());
+    }
+
+    @Test
+    public void testForgottenStillAccept() {
+        AgreementTable table = new AgreementTable(4, 1, ValueSet.DEFAULT_DOMAIN, new AtomicInteger(0));
+        AgreementState first = table.getOrAdd(0, 0);
+        first.setAcceptedValues(Set.of(1));
+        decide(first, 2);
+        assertTrue(table.retireBottom(1));
+        assertNull(table.acceptForgotten(0, ValueSet.of(Set.of(2))));
+        decide(table.getOrAdd(1, 0), 2);
+        assertTrue(table.retireBottom(1));
+        assertNull(table.getOrAdd(0, 0));
+        // not all the accepted values are in the proposal
+        assertEquals(Set.of(1, 2), table.acceptForgotten(0, ValueSet.of(Set.of(2))));
+        assertEquals(Set.of(1, 2, 3), table.acceptForgotten(0, ValueSet.of(Set.of(1, 2, 3))));
+        assertEquals(Set.of(1, 2, 3), table.acceptForgotten(0, ValueSet.of(Set.of(1))));
+        // only retired, and not yet known
+        assertNull(table.acceptForgotten(1, ValueSet.of(Set.of(2))));
+        assertNull(table.acceptForgotten(5, ValueSet.of(Set.of(2))));
+    }
+
+    @Test
+    public void testForgottenRecordBounded() {
+        AgreementTable table = new AgreementTable(4, 1, ValueSet.DEFAULT_DOMAIN, new AtomicInteger(0));
+        for (int id = 0; id < 2; ++id) {
+            decide(table.getOrAdd(id, 0), 2);
+            assertTrue(table.retireBottom(1));
+        }
+        // the record only has room for the first agreement
+        decide(table.getOrAdd(2, 0), 2);
+        assertFalse(table.retireBottom(1, decidedBy -> decidedBy.get(3)));
+        assertEquals(2, table.getBottom());
+        table.decidedForgotten(0, (short) 3);
+        assertTrue(table.retireBottom(1, decidedBy -> decidedBy.get(3)));
+        assertEquals(1, table.getForgottenFrom());
+        assertNull(table.acceptForgotten(0, ValueSet.of(Set.of(2))));
+        assertEquals(Set.of(2), table.acceptForgotten(1, ValueSet.of(Set.of(2))));
+    }
+
+    @Test
+    public void testLookupsWhileRetiring() throws InterruptedException {
+        AgreementTable table = new AgreementTable(2, 4, ValueSet.DEFAULT_DOMAIN, new AtomicInteger(0));
+        int nbAgreements = 200_000;
+        AtomicInteger added = new AtomicInteger(0);
+        AtomicInteger errors = new AtomicInteger(0);
+        Thread[] readers = new Thread[3];
+        for (int r = 0; r < readers.length; ++r) {
+            readers[r] = new Thread(() -> {
+                int seed = 0;
+                while (added.get() < nbAgreements) {
+                    int known = added.get();
+                    // within the few last agreements, retired or not
+                    int id = known - 1 - Math.floorMod(seed++, 8);
+                    if (id < 0) {
+                        continue;
+                    }
+                    AgreementState ag = table.get(id);
+                    int foundId = ag == null ? -1 : ag.getAgreementId();
+                    // not forgotten, nor being forgotten, during the whole lookup
+                    boolean present = table.getBottom() - table.getRetiredSlots() < id;
+                    if (present && foundId != id) {
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+            readers[r].start();
+        }
+        for (int id = 0; id < nbAgreements; ++id) {
+            decide(table.getOrAdd(id, 0), 2);
+            added.incrementAndGet();
+            assertTrue(table.retireBottom(1));
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(0, errors.get());
+    }
+}
@@ -0,0 +1,28 @@
+package cs451;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import cs451.Messages.AsciiEncoding;
+
+public class AsciiEncodingTest {
+
+    @Test
+    public void testMatchesToString() {
+        int[] values = { 0, 1, 9, 10, 99, 100, 12345, -1, -10, -999, Integer.MAX_VALUE, Integer.MIN_VALUE };
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * (AsciiEncoding.MAX_INT_LENGTH + 1));
+        StringBuilder expected = new StringBuilder();
+        for (int v : values) {
+            assertEquals(Integer.toString(v).length(), AsciiEncoding.length(v));
+            AsciiEncoding.putInt(buffer, v);
+            buffer.put((byte) ' ');
+            expected.append(v).append(' ');
+        }
+        assertEquals(expected.toString(),
+                new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII));
+    }
+}
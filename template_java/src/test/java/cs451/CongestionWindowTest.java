@@ -0,0 +1,54 @@
+package cs451;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import cs451.States.CongestionWindow;
+
+public class CongestionWindowTest {
+
+    @Test
+    public void testBoundsInFlight() {
+        CongestionWindow cwnd = new CongestionWindow(1024);
+        for (int i = 0; i < Constants.PL_INITIAL_CWND; ++i) {
+            assertTrue(cwnd.canSend());
+            cwnd.sent();
+        }
+        assertFalse(cwnd.canSend());
+        cwnd.acked();
+        // slow start : one acknowledged message frees its slot and grows the window by one
+        assertEquals(Constants.PL_INITIAL_CWND + 1, cwnd.getSize());
+        assertTrue(cwnd.canSend());
+    }
+
+    @Test
+    public void testDecreaseOncePerEpisode() {
+        CongestionWindow cwnd = new CongestionWindow(1024);
+        cwnd.lost(0, 10);
+        assertEquals(Constants.PL_INITIAL_CWND / 2, cwnd.getSize());
+        // messages sent before the decrease belong to the same loss episode
+        cwnd.lost(5, 12);
+        assertEquals(Constants.PL_INITIAL_CWND / 2, cwnd.getSize());
+        cwnd.lost(10, 20);
+        assertEquals(Constants.PL_INITIAL_CWND / 4, cwnd.getSize());
+        for (int i = 0; i < 10; ++i) {
+            cwnd.lost(100 + i, 100 + i);
+        }
+        assertEquals(Constants.PL_MIN_CWND, cwnd.getSize());
+    }
+
+    @Test
+    public void testAdditiveIncrease() {
+        CongestionWindow cwnd = new CongestionWindow(1024);
+        cwnd.lost(0, 0);
+        int size = cwnd.getSize();
+        // after a loss about a whole window of acknowledged messages grows it by one
+        for (int i = 0; i <= size; ++i) {
+            cwnd.acked();
+        }
+        assertEquals(size + 1, cwnd.getSize());
+    }
+}
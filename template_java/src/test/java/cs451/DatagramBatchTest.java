@@ -0,0 +1,64 @@
+package cs451;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import cs451.Messages.DatagramBatch;
+import cs451.Messages.Message;
+import cs451.Messages.Message.EchoAck;
+import cs451.Messages.Message.PayloadType;
+import cs451.Messages.SeqWindow;
+import cs451.Messages.SerializedMessage;
+
+public class DatagramBatchTest {
+    private final SeqWindow received = new SeqWindow(64);
+    private final int ackSize = DatagramBatch.ACK_HEADER_SIZE + received.maxWrittenSize();
+
+    private static SerializedMessage serialized(int nbValues) {
+        Set<Integer> values = new HashSet<>();
+        for (int i = 0; i < nbValues; ++i) {
+            values.add(i);
+        }
+        return new SerializedMessage(new Message(EchoAck.ECHO, (short) 1, (short) 1, 0, 1, PayloadType.PROPOSAL,
+                values), null, 1);
+    }
+
+    @Test
+    public void testAckWithinMtu() {
+        SerializedMessage msg = serialized(4);
+        int dataSize = DatagramBatch.DATA_HEADER_SIZE + msg.size();
+        DatagramBatch batch = new DatagramBatch(dataSize + ackSize, 1000);
+        batch.addData(0, msg, 0);
+        assertTrue(batch.addAck((short) 2, received));
+        assertTrue(batch.toSend().remaining() > dataSize);
+    }
+
+    @Test
+    public void testAckExceedingMtu() {
+        SerializedMessage msg = serialized(4);
+        int dataSize = DatagramBatch.DATA_HEADER_SIZE + msg.size();
+        // the buffer has room for the ACK, but the datagram would exceed the MTU
+        DatagramBatch batch = new DatagramBatch(dataSize + ackSize - 1, 1000);
+        batch.addData(0, msg, 0);
+        assertFalse(batch.addAck((short) 2, received));
+        assertEquals(dataSize, batch.toSend().remaining());
+    }
+
+    @Test
+    public void testAckAloneOrAfterOversizedMessage() {
+        SerializedMessage big = serialized(200);
+        DatagramBatch batch = new DatagramBatch(big.size() - 1, big.size() + ackSize);
+        assertTrue(batch.addAck((short) 2, received));
+        batch.clear();
+        batch.addData(0, big, 0);
+        // sent alone anyway, the ACK uses the room left
+        assertTrue(batch.addAck((short) 2, received));
+        assertTrue(batch.toSend().remaining() > DatagramBatch.DATA_HEADER_SIZE + big.size());
+    }
+}
@@ -0,0 +1,61 @@
+package cs451;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import cs451.Idle.IdleStrategy;
+import cs451.Idle.IdleStrategyType;
+
+public class IdleStrategyTest {
+
+    @Test
+    public void testParkReturnsOnSignal() throws InterruptedException {
+        IdleStrategy idle = IdleStrategyType.PARK.create();
+        // a signal given before idling is not lost
+        idle.signal();
+        long start = System.nanoTime();
+        idle.idle(TimeUnit.SECONDS.toNanos(10));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
+        Thread signaller = new Thread(() -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            idle.signal();
+        });
+        start = System.nanoTime();
+        signaller.start();
+        idle.idle(TimeUnit.SECONDS.toNanos(10));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        signaller.join();
+    }
+
+    @Test
+    public void testParkTimesOut() throws InterruptedException {
+        IdleStrategy idle = IdleStrategyType.PARK.create();
+        long start = System.nanoTime();
+        idle.idle(TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void testIdleThrowsWhenInterrupted() {
+        for (IdleStrategyType type : IdleStrategyType.values()) {
+            IdleStrategy idle = type.create();
+            Thread.currentThread().interrupt();
+            try {
+                idle.idle(TimeUnit.SECONDS.toNanos(10));
+                fail("Idle strategy " + type + " should have been interrupted");
+            } catch (InterruptedException e) {
+                assertFalse(Thread.currentThread().isInterrupted());
+            }
+        }
+    }
+}
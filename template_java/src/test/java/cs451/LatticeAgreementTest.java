@@ -0,0 +1,331 @@
+package cs451;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Test;
+
+import cs451.Broadcasts.LatticeAgreement;
+import cs451.Messages.Message;
+import cs451.Messages.Message.EchoAck;
+import cs451.Messages.Message.PayloadType;
+import cs451.Messages.MessageToBeSent;
+import cs451.Messages.TimerWheel;
+import cs451.Parsers.Parser;
+import cs451.Parsers.ConfigParser.LatticeConfig;
+import cs451.States.AgreementState;
+import cs451.States.AgreementTable;
+import cs451.States.LatticeState;
+import cs451.States.PlState;
+
+/**
+ * Drives the receiver lattice of host 1 among 3 hosts with the messages of the other hosts, the PL threads are
+ * not started : the answers are read from the PL queue
+ */
+public class LatticeAgreementTest {
+    private static final short ME = 1;
+    private final LatticeConfig config;
+
+    private final LatticeAgreement sender;
+    private final LatticeAgreement receiver;
+    private final FakeReceiver delivered;
+    private final LatticeState state;
+    private final PlState plState;
+
+    public class FakeReceiver extends Receiver {
+        final Map<Integer, Set<Integer>> decisions = new ConcurrentHashMap<>();
+
+        @Override
+        public void deliver(int agreementId, Set<Integer> values) {
+            decisions.put(agreementId, Set.copyOf(values));
+        }
+    }
+
+    public LatticeAgreementTest() throws IOException {
+        this(Constants.LATTICE_MIN_RETIRED_HISTORY, 1);
+    }
+
+    private LatticeAgreementTest(int retiredSlots, int nbWorkers) throws IOException {
+        Parser parser = new Parser(
+                "--id 1 --hosts ../example/hosts --output ../example/output/1.output ../example/configs/lattice-agreement-1.config"
+                        .split(" "));
+        parser.parse();
+        config = parser.configParser().getLatticeConfig();
+        // free ports, the example hosts are used by the other tests
+        Map<Short, Host> hostsMap = new HashMap<>();
+        for (short id = 1; id <= 3; ++id) {
+            try (DatagramSocket socket = new DatagramSocket(0)) {
+                Host host = new Host();
+                host.populate(Short.toString(id), "127.0.0.1", Integer.toString(socket.getLocalPort()));
+                hostsMap.put(id, host);
+            }
+        }
+        sender = new LatticeAgreement(ME, hostsMap, config, retiredSlots);
+        state = sender.getLatticeState();
+        plState = sender.getPlState();
+        delivered = new FakeReceiver();
+        receiver = new LatticeAgreement(ME, hostsMap, delivered, config, state, plState, nbWorkers);
+    }
+
+    private static Message msg(int from, int agreementId, int number, PayloadType type, Set<Integer> values) {
+        return new Message(EchoAck.ECHO, (short) from, (short) from, agreementId, number, type, values);
+    }
+
+    /**
+     * Hands the message to the receiver lattice, and the ones it sends to itself
+     */
+    private void handle(Message m) throws InterruptedException {
+        receiver.deliver(m);
+        while (!state.getToDeliver().isEmpty()) {
+            receiver.runReceiverLattice();
+        }
+    }
+
+    /**
+     * Gives the messages sent to the host since the last call
+     */
+    private List<Message> sentTo(int dest) {
+        List<Message> sent = new ArrayList<>();
+        plState.getPlToSend().removeIf(m -> {
+            if (m.getDest() == dest) {
+                sent.add(m.getMessage());
+                return true;
+            }
+            return false;
+        });
+        return sent;
+    }
+
+    private static void assertAnswer(List<Message> sent, PayloadType type, int number, Set<Integer> values) {
+        assertEquals(1, sent.size());
+        assertEquals(type, sent.get(0).getPayloadType());
+        assertEquals(number, sent.get(0).getActivePropNumber());
+        // the answers without values carry none
+        Set<Integer> sentValues = sent.get(0).getValues();
+        assertEquals(values, sentValues == null ? Set.of() : sentValues);
+    }
+
+    /**
+     * Decides the agreement with the acknowledgements of both other hosts, which then both decide it too
+     */
+    private void decideAndRetire(int agreementId) throws InterruptedException {
+        assertTrue(sender.propose(agreementId, Set.of(agreementId)));
+        handle(msg(2, agreementId, 1, PayloadType.ACK, null));
+        handle(msg(3, agreementId, 1, PayloadType.ACK, null));
+        handle(msg(2, agreementId, 1, PayloadType.DECIDED, null));
+        handle(msg(3, agreementId, 1, PayloadType.DECIDED, null));
+    }
+
+    @Test
+    public void testRetiresOnceMajorityDecided() throws InterruptedException {
+        AgreementTable agreements = state.getAgreements();
+        assertTrue(sender.propose(0, Set.of(1)));
+        handle(msg(2, 0, 1, PayloadType.ACK, null));
+        handle(msg(2, 0, 1, PayloadType.DECIDED, null));
+        // not decided by us yet
+        assertEquals(0, agreements.getBottom());
+        handle(msg(3, 0, 1, PayloadType.ACK, null));
+        assertEquals(Set.of(1), delivered.decisions.get(0));
+        assertEquals(0, state.getWindowSize().get());
+        // decided by us and host 2 only, host 3 may have crashed
+        assertEquals(0, agreements.getBottom());
+        // host 2 told it again after being suspected
+        handle(msg(2, 0, 0, PayloadType.DECIDED, null));
+        assertEquals(0, agreements.getBottom());
+        handle(msg(3, 0, 1, PayloadType.DECIDED, null));
+        assertEquals(1, agreements.getBottom());
+    }
+
+    @Test
+    public void testMessagesToOurselvesDeliveredLocally() throws InterruptedException {
+        assertTrue(sender.propose(0, Set.of(1)));
+        Message proposal = state.getToBroadcast().peek();
+        sender.runSenderLattice();
+        // the other hosts get it through the PL, we get the message itself without a sequence number
+        for (MessageToBeSent queued : plState.getPlToSend()) {
+            assertTrue(queued.getDest() != ME);
+            assertEquals(-1, queued.getSeq());
+        }
+        assertEquals(1, sentTo(2).size());
+        assertEquals(1, sentTo(3).size());
+        assertEquals(1, state.getToDeliver().size());
+        assertSame(proposal, state.getToDeliver().peek());
+        // our answer to it is delivered the same way
+        receiver.runReceiverLattice();
+        assertEquals(1, state.getToDeliver().size());
+        Message ack = state.getToDeliver().peek();
+        assertEquals(PayloadType.ACK, ack.getPayloadType());
+        assertEquals(ME, ack.getSenderId());
+        assertTrue(plState.getPlToSend().isEmpty());
+        // nothing waits for our own window nor is sent again
+        assertTrue(plState.getPlPeers()[ME].getWaiting().isEmpty());
+        receiver.runReceiverLattice();
+        assertTrue(state.getToDeliver().isEmpty());
+        assertTrue(plState.getPlToSend().isEmpty());
+    }
+
+    @Test
+    public void testMessagesToOurselvesNotRetransmitted() throws IOException, InterruptedException {
+        LatticeAgreementTest running = new LatticeAgreementTest(Constants.LATTICE_MIN_RETIRED_HISTORY, 1);
+        // runs the sender PL, the other hosts are down
+        Thread lattice = new Thread(running.sender);
+        lattice.start();
+        try {
+            assertTrue(running.sender.propose(0, Set.of(1)));
+            TimerWheel retransmissions = running.plState.getPlPeers()[ME].getRetransmissions();
+            await(() -> retransmissions.size() == 2);
+            // only the messages to the other hosts wait to be sent again, they leave the wheel while resent
+            long until = System.currentTimeMillis() + 4 * Constants.PL_TIMEOUT_BEFORE_RESEND;
+            while (System.currentTimeMillis() < until) {
+                assertTrue(retransmissions.size() <= 2);
+                Thread.sleep(1);
+            }
+            assertEquals(1, running.state.getToDeliver().size());
+            assertEquals(PayloadType.PROPOSAL, running.state.getToDeliver().peek().getPayloadType());
+        } finally {
+            lattice.interrupt();
+            lattice.join();
+        }
+    }
+
+    @Test
+    public void testRetiredAnswersLateProposals() throws InterruptedException {
+        decideAndRetire(0);
+        assertEquals(1, state.getAgreements().getBottom());
+        sentTo(2);
+        sentTo(3);
+        handle(msg(3, 0, 1, PayloadType.PROPOSAL, Set.of(5)));
+        assertAnswer(sentTo(3), PayloadType.ACK, 1, Set.of());
+        handle(msg(2, 0, 1, PayloadType.PROPOSAL, Set.of(6)));
+        assertAnswer(sentTo(2), PayloadType.NACK, 1, Set.of(5));
+        // rebuilt from the proposal received after the retirement
+        handle(msg(3, 0, 2, PayloadType.PROPOSAL_DELTA, Set.of(6)));
+        assertAnswer(sentTo(3), PayloadType.ACK, 2, Set.of());
+        // the previous proposal of host 2 was not received
+        handle(msg(2, 0, 3, PayloadType.PROPOSAL_DELTA, Set.of(5)));
+        assertAnswer(sentTo(2), PayloadType.RESEND, 3, Set.of());
+    }
+
+    @Test
+    public void testForgottenAgreementsStillAnswered() throws IOException, InterruptedException {
+        LatticeAgreementTest small = new LatticeAgreementTest(2, 1);
+        AgreementTable agreements = small.state.getAgreements();
+        small.decideAndRetire(0);
+        small.handle(msg(3, 0, 1, PayloadType.PROPOSAL, Set.of(7)));
+        Set<AgreementState> used = Collections.newSetFromMap(new IdentityHashMap<>());
+        used.add(agreements.get(0));
+        for (int id = 1; id < 4; ++id) {
+            small.decideAndRetire(id);
+            used.add(agreements.get(id));
+        }
+        // more agreements retired than kept in the history
+        assertEquals(4, agreements.getBottom());
+        assertEquals(null, agreements.get(0));
+        small.sentTo(2);
+        small.sentTo(3);
+        small.handle(msg(2, 0, 1, PayloadType.PROPOSAL, Set.of(8)));
+        assertAnswer(small.sentTo(2), PayloadType.NACK, 1, Set.of(7));
+        small.handle(msg(2, 0, 2, PayloadType.PROPOSAL, Set.of(7, 8)));
+        assertAnswer(small.sentTo(2), PayloadType.ACK, 2, Set.of());
+        // the accepted values grew with the proposal of host 2
+        small.handle(msg(3, 0, 2, PayloadType.PROPOSAL, Set.of(7)));
+        assertAnswer(small.sentTo(3), PayloadType.NACK, 2, Set.of(8));
+        small.handle(msg(3, 0, 3, PayloadType.PROPOSAL_DELTA, Set.of(8)));
+        assertAnswer(small.sentTo(3), PayloadType.RESEND, 3, Set.of());
+        // the state of a forgotten agreement is used for a new one
+        assertEquals(3, used.size());
+        assertTrue(small.sender.propose(4, Set.of(4)));
+        AgreementState recycled = agreements.get(4);
+        assertNotNull(recycled);
+        assertTrue(used.contains(recycled));
+        assertEquals(4, recycled.getAgreementId());
+    }
+
+    @Test
+    public void testProposesAgainWhenStale() throws InterruptedException {
+        assertTrue(sender.propose(0, Set.of(1)));
+        state.getToBroadcast().clear();
+        Thread.sleep(Constants.LATTICE_REPROPOSE_TIMEOUT + 100);
+        handle(msg(2, 0, 1, PayloadType.ACK, null));
+        // the answers to the first proposal are not counted anymore
+        handle(msg(3, 0, 1, PayloadType.ACK, null));
+        assertEquals(null, delivered.decisions.get(0));
+        Message again = state.getToBroadcast().poll();
+        assertNotNull(again);
+        assertEquals(PayloadType.PROPOSAL, again.getPayloadType());
+        assertEquals(2, again.getActivePropNumber());
+        assertEquals(Set.of(1), again.getValues());
+        handle(msg(2, 0, 2, PayloadType.ACK, null));
+        handle(msg(3, 0, 2, PayloadType.ACK, null));
+        assertEquals(Set.of(1), delivered.decisions.get(0));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testWorkersDecideInterleavedAgreements() throws IOException, InterruptedException {
+        LatticeAgreementTest sharded = new LatticeAgreementTest(Constants.LATTICE_MIN_RETIRED_HISTORY, 4);
+        Thread lattice = new Thread(sharded.receiver);
+        lattice.start();
+        int batch = Constants.LATTICE_MIN_WINDOW;
+        int nbAgreements = 4 * batch;
+        try {
+            for (int from = 0; from < nbAgreements; from += batch) {
+                for (int id = from; id < from + batch; ++id) {
+                    assertTrue(sharded.sender.propose(id, Set.of(id)));
+                }
+                // the agreements of the batch are handled by all the workers, each message after the previous
+                // ones of its agreement
+                for (int id = from; id < from + batch; ++id) {
+                    if (id % 2 == 0) {
+                        sharded.receiver.deliver(msg(2, id, 1, PayloadType.NACK, Set.of(id + 1)));
+                    } else {
+                        sharded.receiver.deliver(msg(2, id, 1, PayloadType.ACK, null));
+                    }
+                }
+                for (int id = from; id < from + batch; ++id) {
+                    sharded.receiver.deliver(msg(3, id, 1, PayloadType.ACK, null));
+                }
+                // the even ones were proposed again with the values of host 2
+                for (int id = from; id < from + batch; id += 2) {
+                    sharded.receiver.deliver(msg(2, id, 2, PayloadType.ACK, null));
+                    sharded.receiver.deliver(msg(3, id, 2, PayloadType.ACK, null));
+                }
+                for (int id = from; id < from + batch; ++id) {
+                    sharded.receiver.deliver(msg(2, id, 1, PayloadType.DECIDED, null));
+                    sharded.receiver.deliver(msg(3, id, 1, PayloadType.DECIDED, null));
+                }
+                int decided = from + batch;
+                await(() -> sharded.delivered.decisions.size() == decided);
+                assertEquals(0, sharded.state.getWindowSize().get());
+            }
+            await(() -> sharded.state.getAgreements().getBottom() == nbAgreements);
+        } finally {
+            lattice.interrupt();
+        }
+        for (int id = 0; id < nbAgreements; ++id) {
+            assertEquals(id % 2 == 0 ? Set.of(id, id + 1) : Set.of(id), sharded.delivered.decisions.get(id));
+        }
+        assertEquals(0, sharded.state.getWindowSize().get());
+    }
+}
@@ -0,0 +1,135 @@
+package cs451;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cs451.Messages.FlushMetrics;
+import cs451.Messages.LogsBuilder;
+import cs451.Messages.LogsBuilder.Durability;
+import cs451.Messages.ValueSet;
+
+public class LogsBuilderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDrainWritesEverything() throws IOException {
+        File output = folder.newFile();
+        LogsBuilder logs = new LogsBuilder(output.getPath(), 64, 16, 60_000);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1_000; ++i) {
+            String line = i + " " + (i + 1) + "\n";
+            logs.log(line);
+            expected.append(line);
+        }
+        logs.drain();
+        // dropped once drained
+        logs.log("1\n");
+        assertEquals(expected.toString(), Files.readString(output.toPath()));
+    }
+
+    @Test(timeout = 10_000)
+    public void testWritesWholeChunksOnceFull() throws IOException, InterruptedException {
+        File output = folder.newFile();
+        LogsBuilder logs = new LogsBuilder(output.getPath(), 100, 32, 60_000);
+        for (int i = 0; i < 50; ++i) {
+            logs.log("12\n");
+        }
+        while (output.length() == 0) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(10);
+        assertEquals(0, output.length() % 32);
+        logs.drain();
+        assertEquals(150, output.length());
+    }
+
+    @Test(timeout = 10_000)
+    public void testWritesAfterInterval() throws IOException, InterruptedException {
+        File output = folder.newFile();
+        LogsBuilder logs = new LogsBuilder(output.getPath(), 1 << 20, 1 << 16, 10);
+        logs.log("1 2 3\n");
+        while (output.length() < 6) {
+            Thread.sleep(1);
+        }
+        assertEquals("1 2 3\n", Files.readString(output.toPath()));
+        logs.drain();
+    }
+
+    @Test
+    public void testLogsDecisionLines() throws IOException {
+        File output = folder.newFile();
+        LogsBuilder logs = new LogsBuilder(output.getPath(), 8, 4, 60_000);
+        logs.log(ValueSet.of(List.of(10_000, 3, 42, -7)));
+        logs.log(ValueSet.EMPTY);
+        logs.log(ValueSet.of(List.of(1)));
+        logs.drain();
+        assertEquals("-7 3 42 10000 \n\n1 \n", Files.readString(output.toPath()));
+    }
+
+    @Test(timeout = 10_000)
+    public void testGroupCommitSyncsEveryDecision() throws IOException, InterruptedException {
+        File output = folder.newFile();
+        LogsBuilder logs = new LogsBuilder(output.getPath(), 1 << 20, 1 << 16, 60_000, Durability.GROUP_COMMIT, 1);
+        for (int i = 1; i <= 100; ++i) {
+            logs.log(ValueSet.of(List.of(i)));
+            if (i % 10 == 0) {
+                while (logs.getDurable() < i) {
+                    Thread.sleep(1);
+                }
+                assertEquals(i, Files.readAllLines(output.toPath()).size());
+            }
+        }
+        // at most one sync per decision, usually far less
+        assertTrue(logs.getFlushMetrics().getCount() <= 100);
+        logs.drain();
+        assertEquals(100, logs.getDurable());
+    }
+
+    @Test(timeout = 10_000)
+    public void testPeriodicSync() throws IOException, InterruptedException {
+        File output = folder.newFile();
+        LogsBuilder logs = new LogsBuilder(output.getPath(), 1 << 20, 1 << 16, 60_000, Durability.PERIODIC, 5);
+        logs.log(ValueSet.of(List.of(1, 2)));
+        while (logs.getDurable() < 1) {
+            Thread.sleep(1);
+        }
+        assertEquals("1 2 \n", Files.readString(output.toPath()));
+        logs.drain();
+    }
+
+    @Test(timeout = 10_000)
+    public void testNoFlushWhenNothingLogged() throws IOException, InterruptedException {
+        LogsBuilder logs = new LogsBuilder(folder.newFile().getPath(), 1 << 20, 1 << 16, 1);
+        Thread.sleep(50);
+        assertEquals(0, logs.getFlushMetrics().getCount());
+        logs.log("1\n");
+        while (logs.getFlushMetrics().getCount() == 0) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(50);
+        // the interval flushes after the first one find nothing to write
+        assertEquals(1, logs.getFlushMetrics().getCount());
+        logs.drain();
+    }
+
+    @Test
+    public void testFlushMetrics() {
+        FlushMetrics metrics = new FlushMetrics();
+        assertEquals(0, metrics.getMeanNanos());
+        metrics.record(10);
+        metrics.record(30);
+        assertEquals(2, metrics.getCount());
+        assertEquals(20, metrics.getMeanNanos());
+        assertEquals(30, metrics.getMaxNanos());
+    }
+}
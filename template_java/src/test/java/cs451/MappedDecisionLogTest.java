@@ -0,0 +1,97 @@
+package cs451;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cs451.Messages.DecisionLogReader;
+import cs451.Messages.LogsBuilder;
+import cs451.Messages.MappedDecisionLog;
+import cs451.Messages.ValueSet;
+
+public class MappedDecisionLogTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<ValueSet> decisions(int nb) {
+        List<ValueSet> decisions = new ArrayList<>();
+        for (int i = 0; i < nb; ++i) {
+            ValueSet.Builder builder = new ValueSet.Builder(ValueSet.DEFAULT_DOMAIN);
+            for (int v = 0; v < i % 7; ++v) {
+                builder.add(i * 1_000 + v - 3);
+            }
+            decisions.add(builder.build());
+        }
+        return decisions;
+    }
+
+    @Test
+    public void testSameBytesAsLogsBuilder() throws IOException {
+        File text = folder.newFile();
+        File mapped = folder.newFile();
+        LogsBuilder textLog = new LogsBuilder(text.getPath());
+        // small regions so that the files are grown several times
+        MappedDecisionLog mappedLog = new MappedDecisionLog(mapped.getPath(), 64);
+        for (ValueSet decision : decisions(500)) {
+            textLog.log(decision);
+            mappedLog.log(decision);
+        }
+        textLog.drain();
+        mappedLog.drain();
+        assertArrayEquals(Files.readAllBytes(text.toPath()), Files.readAllBytes(mapped.toPath()));
+        assertEquals(Long.BYTES * 501, new File(mapped.getPath() + MappedDecisionLog.INDEX_SUFFIX).length());
+    }
+
+    @Test
+    public void testReadsWhileWritten() throws IOException {
+        File mapped = folder.newFile();
+        List<ValueSet> decisions = decisions(100);
+        MappedDecisionLog mappedLog = new MappedDecisionLog(mapped.getPath(), 128);
+        for (int i = 0; i < 50; ++i) {
+            mappedLog.log(decisions.get(i));
+        }
+        try (DecisionLogReader reader = new DecisionLogReader(mapped.getPath())) {
+            assertEquals(50, reader.size());
+            assertEquals(decisions.get(0), reader.read(0));
+            assertEquals(decisions.get(49), reader.read(49));
+            assertNull(reader.read(50));
+            for (int i = 50; i < 100; ++i) {
+                mappedLog.log(decisions.get(i));
+            }
+            mappedLog.drain();
+            assertEquals(decisions.get(77), reader.read(77));
+            List<ValueSet> streamed = new ArrayList<>();
+            reader.forEachFrom(40, streamed::add);
+            assertEquals(decisions.subList(40, 100), streamed);
+        }
+    }
+
+    @Test
+    public void testRecoversUndrainedOutput() throws IOException {
+        File text = folder.newFile();
+        File mapped = folder.newFile();
+        LogsBuilder textLog = new LogsBuilder(text.getPath());
+        MappedDecisionLog mappedLog = new MappedDecisionLog(mapped.getPath(), 4096);
+        for (ValueSet decision : decisions(30)) {
+            textLog.log(decision);
+            mappedLog.log(decision);
+        }
+        textLog.drain();
+        // killed before being drained : the regions are padded with NUL bytes
+        assertEquals(4096, mapped.length());
+        assertEquals(30, MappedDecisionLog.recover(mapped.getPath()));
+        assertArrayEquals(Files.readAllBytes(text.toPath()), Files.readAllBytes(mapped.toPath()));
+        assertEquals(Long.BYTES * 31, new File(mapped.getPath() + MappedDecisionLog.INDEX_SUFFIX).length());
+        mappedLog.drain();
+    }
+}
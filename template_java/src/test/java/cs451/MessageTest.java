@@ -1,14 +1,23 @@
 package cs451;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
 
+import java.nio.ByteBuffer;
+import java.util.HashSet;
 import java.util.Set;
 
 import org.junit.Test;
 
+import cs451.Messages.BufferPool;
 import cs451.Messages.Message;
 import cs451.Messages.Message.EchoAck;
 import cs451.Messages.Message.PayloadType;
+import cs451.Messages.SerializedMessage;
+import cs451.Messages.ValuesEncoding;
+import cs451.Messages.ValuesEncoding.Format;
 
 public class MessageTest {
 
@@ -64,4 +73,134 @@ public class MessageTest {
         messageDeepEquals(m, deserialized);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testDeserializePackedMessages() {
+        Message m1 = new Message(EchoAck.ECHO, (short) 23, (short) 3, 32432, 5432432, PayloadType.NACK,
+                Set.of(784, 5675, 323310));
+        Message m2 = new Message(EchoAck.ACK, (short) 111, (short) 31, 9876, 111111, PayloadType.NACK, null);
+        Message m3 = new Message(EchoAck.ECHO, (short) 12, (short) 43, 1222, 7, PayloadType.DECIDED, null);
+        byte[] b1 = m1.serialize();
+        byte[] b2 = m2.serialize();
+        byte[] b3 = m3.serialize();
+        ByteBuffer datagram = ByteBuffer.allocate(b1.length + b2.length + b3.length);
+        datagram.put(b1).put(b2).put(b3).flip();
+        messageDeepEquals(m1, Message.deserialize(datagram));
+        messageDeepEquals(m2, Message.deserialize(datagram));
+        messageDeepEquals(m3, Message.deserialize(datagram));
+        assertEquals(0, datagram.remaining());
+    }
+
+    @Test
+    public void testPooledSerializationReusesBuffers() {
+        Message m = new Message(EchoAck.ECHO, (short) 2, (short) 1, 17, 3, PayloadType.PROPOSAL,
+                Set.of(5, 8, 13));
+        BufferPool pool = new BufferPool(m.serializedSize());
+        SerializedMessage serialized = new SerializedMessage(m, pool, 2);
+        ByteBuffer datagram = ByteBuffer.allocate(2 * m.serializedSize());
+        serialized.copyTo(datagram);
+        serialized.copyTo(datagram);
+        datagram.flip();
+        messageDeepEquals(m, Message.deserialize(datagram));
+        messageDeepEquals(m, Message.deserialize(datagram));
+
+        serialized.release();
+        assertTrue(serialized.retain());
+        serialized.release();
+        serialized.release();
+        // every reference is released : the buffer is back in the pool and the bytes cannot be used anymore
+        assertFalse(serialized.retain());
+        assertEquals("BufferPool [free=1, bufferSize=" + m.serializedSize() + "]", pool.toString());
+        assertNotSame(pool.acquire(), pool.acquire());
+    }
+
+    @Test
+    public void testPoolSizedAndBounded() {
+        Message ack = new Message(EchoAck.ECHO, (short) 2, (short) 1, 17, 3, PayloadType.ACK, null);
+        Message proposal = new Message(EchoAck.ECHO, (short) 2, (short) 1, 17, 3, PayloadType.PROPOSAL,
+                Set.of(5, 8, 13, 1_000, 100_000));
+        BufferPool pool = new BufferPool(ack.serializedSize(), 256, 1);
+        SerializedMessage small = new SerializedMessage(ack, pool, 1);
+        SerializedMessage large = new SerializedMessage(proposal, pool, 1);
+        // the pool only allocates one direct buffer of each size
+        ByteBuffer overflow = pool.acquire(proposal.serializedSize());
+        assertFalse(overflow.isDirect());
+        assertEquals(256, overflow.capacity());
+        ByteBuffer datagram = ByteBuffer.allocate(ack.serializedSize() + proposal.serializedSize());
+        small.copyTo(datagram);
+        large.copyTo(datagram);
+        datagram.flip();
+        messageDeepEquals(ack, Message.deserialize(datagram));
+        messageDeepEquals(proposal, Message.deserialize(datagram));
+
+        small.release();
+        large.release();
+        pool.release(overflow);
+        assertEquals(2, pool.getFree());
+        // the small buffer is not given for a larger message
+        ByteBuffer reused = pool.acquire(proposal.serializedSize());
+        assertTrue(reused.isDirect());
+        assertEquals(256, reused.capacity());
+        ByteBuffer reusedSmall = pool.acquire(ack.serializedSize());
+        assertTrue(reusedSmall.isDirect());
+        assertEquals(ack.serializedSize(), reusedSmall.capacity());
+        assertEquals(0, pool.getFree());
+    }
+
+    @Test
+    public void testSkipPackedMessages() {
+        Message m1 = new Message(EchoAck.ECHO, (short) 4, (short) 4, 1, 2, PayloadType.NACK, Set.of(3, 9, 27));
+        Message m2 = new Message(EchoAck.ECHO, (short) 5, (short) 5, 1, 2, PayloadType.DECIDED, null);
+        Message m3 = new Message(EchoAck.ECHO, (short) 6, (short) 6, 7, 8, PayloadType.PROPOSAL, Set.of(1));
+        ByteBuffer datagram = ByteBuffer.allocate(m1.serializedSize() + m2.serializedSize() + m3.serializedSize());
+        m1.serializeInto(datagram);
+        m2.serializeInto(datagram);
+        m3.serializeInto(datagram);
+        datagram.flip();
+        assertEquals(4, Message.peekSenderId(datagram));
+        Message.skip(datagram);
+        assertEquals(5, Message.peekSenderId(datagram));
+        Message.skip(datagram);
+        assertEquals(6, Message.peekSenderId(datagram));
+        messageDeepEquals(m3, Message.deserialize(datagram));
+        assertEquals(0, datagram.remaining());
+    }
+
+    private void assertEncodedAs(Format format, Set<Integer> values) {
+        int[] sorted = ValuesEncoding.sorted(values);
+        assertEquals(format, ValuesEncoding.bestFormat(sorted));
+        ByteBuffer buffer = ByteBuffer.allocate(ValuesEncoding.encodedSize(sorted));
+        ValuesEncoding.encode(sorted, buffer);
+        assertEquals(0, buffer.remaining());
+        buffer.flip();
+        assertEquals(values, ValuesEncoding.decode(buffer));
+        buffer.rewind();
+        ValuesEncoding.skip(buffer);
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    public void testValuesEncodings() {
+        Set<Integer> dense = new HashSet<>();
+        for (int v = 1; v <= 200; v += 1 + v % 2) {
+            dense.add(v);
+        }
+        assertEncodedAs(Format.BITMAP, dense);
+        assertEncodedAs(Format.DELTA, Set.of(3, 130, 1_000, 70_000));
+        assertEncodedAs(Format.DELTA, Set.of());
+        assertEncodedAs(Format.RAW, Set.of(Integer.MIN_VALUE, -1_000_000_000, 1_000_000_000, Integer.MAX_VALUE));
+        assertEncodedAs(Format.BITMAP, Set.of(-5, -1, 0, 7));
+        assertEncodedAs(Format.DELTA, Set.of(-500, -1, 0, 700));
+    }
+
+    @Test
+    public void testDenseValuesAreSmaller() {
+        Set<Integer> values = new HashSet<>();
+        for (int v = 1; v <= 1_000; ++v) {
+            values.add(v);
+        }
+        Message m = new Message(EchoAck.ECHO, (short) 1, (short) 1, 0, 1, PayloadType.PROPOSAL, values);
+        assertTrue(m.serializedSize() * 8 < Message.maxSerializedSize(values.size()));
+        messageDeepEquals(m, Message.deserialize(m.serialize()));
+    }
+
+}
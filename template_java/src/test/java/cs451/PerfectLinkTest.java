@@ -1,15 +1,23 @@
 package cs451;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.IOException;
+import java.net.DatagramSocket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BooleanSupplier;
 
 import org.junit.Test;
 
@@ -18,9 +26,12 @@ import cs451.Broadcasts.PerfectLink;
 import cs451.Messages.Message;
 import cs451.Messages.Message.EchoAck;
 import cs451.Messages.Message.PayloadType;
+import cs451.Messages.BufferPool;
+import cs451.Messages.MessageToBeSent;
 import cs451.Parsers.Parser;
 import cs451.Parsers.ConfigParser.LatticeConfig;
-import cs451.States.PlState;;
+import cs451.States.PeerState;
+import cs451.States.PlState;
 
 public class PerfectLinkTest {
     Parser parser = new Parser(
@@ -38,7 +49,7 @@ public class PerfectLinkTest {
     }
 
     public class FakeParent implements Deliverable {
-        private final List<Message> delivered = new ArrayList<>();
+        private final List<Message> delivered = Collections.synchronizedList(new ArrayList<>());
 
         @Override
         public void deliver(Message m) {
@@ -110,4 +121,200 @@ public class PerfectLinkTest {
             fail("Failed to allocate PL");
         }
     }
+
+    /**
+     * Hosts on free ports of the loopback, the example hosts are used by the other tests
+     */
+    private static Map<Short, Host> loopbackHosts(int nbHosts) throws IOException {
+        Map<Short, Host> hosts = new HashMap<>();
+        for (short id = 1; id <= nbHosts; ++id) {
+            try (DatagramSocket socket = new DatagramSocket(0)) {
+                Host host = new Host();
+                host.populate(Short.toString(id), "127.0.0.1", Integer.toString(socket.getLocalPort()));
+                hosts.put(id, host);
+            }
+        }
+        return hosts;
+    }
+
+    private static void await(BooleanSupplier condition, Runnable step) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            step.run();
+            Thread.sleep(1);
+        }
+    }
+
+    private static Thread start(PerfectLink pl) {
+        Thread thread = new Thread(pl);
+        thread.start();
+        return thread;
+    }
+
+    private static void stop(Thread thread, PerfectLink pl) throws InterruptedException {
+        thread.interrupt();
+        thread.join();
+        pl.close();
+    }
+
+    private static void runSender(PerfectLink pl) {
+        try {
+            pl.runSenderPl();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void testDecisionsToldAgainOnceSuspectedPeerBack() throws IOException, InterruptedException {
+        Map<Short, Host> hosts = loopbackHosts(2);
+        short me = 1;
+        short peer = 2;
+        int nbAgreements = 2 * Constants.PL_PURGE_STEP;
+        PerfectLink sender = new PerfectLink(me, hosts, config);
+        PerfectLink receiver = new PerfectLink(me, hosts, new FakeParent(), config, sender.getPlState());
+        Thread receiverThread = start(receiver);
+        PeerState peerState = sender.getPlState().getPlPeers()[peer];
+        // the peer is down, only the first messages fit in the congestion window
+        for (int id = 0; id < nbAgreements; ++id) {
+            sender.addToSend(new Message(EchoAck.ECHO, me, me, id, 1, PayloadType.PROPOSAL, Set.of(id)), peer);
+            sender.addToSend(new Message(EchoAck.ECHO, me, me, id, 1, PayloadType.DECIDED, null), peer);
+        }
+        sender.runSenderPl();
+        assertTrue(peerState.getWaiting().size() > 0);
+        Thread.sleep(Constants.PL_SUSPECT_TIMEOUT + 100);
+        assertTrue(sender.isSuspected(peer, System.currentTimeMillis()));
+        sender.forgetBefore(nbAgreements);
+        sender.runSenderPl();
+        // the proposals are not needed anymore, the decisions are told again later
+        assertEquals(0, peerState.getWaiting().size());
+        assertTrue(peerState.hasPurgedDecisions());
+
+        FakeParent peerParent = new FakeParent();
+        PerfectLink peerSender = new PerfectLink(peer, hosts, config);
+        PerfectLink peerReceiver = new PerfectLink(peer, hosts, peerParent, config, peerSender.getPlState());
+        Thread peerSenderThread = start(peerSender);
+        Thread peerReceiverThread = start(peerReceiver);
+        Set<Integer> decided = Collections.synchronizedSet(new TreeSet<>());
+        try {
+            await(() -> {
+                synchronized (peerParent.delivered) {
+                    for (Message m : peerParent.delivered) {
+                        if (m.getPayloadType() == PayloadType.DECIDED) {
+                            decided.add(m.getAgreementId());
+                        }
+                    }
+                }
+                return decided.size() == nbAgreements;
+            }, () -> runSender(sender));
+        } finally {
+            stop(peerReceiverThread, peerReceiver);
+            stop(peerSenderThread, peerSender);
+            stop(receiverThread, receiver);
+            sender.close();
+        }
+        assertFalse(peerState.hasPurgedDecisions());
+        assertTrue(peerParent.delivered.stream().filter(m -> m.getPayloadType() == PayloadType.PROPOSAL)
+                .count() < nbAgreements);
+    }
+
+    /**
+     * Sender and receiver PLs of a host, run by their own threads
+     */
+    private class Node {
+        final FakeParent parent = new FakeParent();
+        final PerfectLink sender;
+        final PerfectLink receiver;
+        final Thread senderThread;
+        final Thread receiverThread;
+
+        Node(short id, Map<Short, Host> hosts) throws SocketException, UnknownHostException {
+            sender = new PerfectLink(id, hosts, config);
+            receiver = new PerfectLink(id, hosts, parent, config, sender.getPlState());
+            senderThread = start(sender);
+            receiverThread = start(receiver);
+        }
+
+        void stop() throws InterruptedException {
+            PerfectLinkTest.stop(receiverThread, receiver);
+            PerfectLinkTest.stop(senderThread, sender);
+        }
+    }
+
+    @Test
+    public void testLoopbackDelivery() throws IOException, InterruptedException {
+        Map<Short, Host> hosts = loopbackHosts(2);
+        Node first = new Node((short) 1, hosts);
+        Node second = new Node((short) 2, hosts);
+        List<Message> sent = new ArrayList<>();
+        try {
+            for (int id = 0; id < 500; ++id) {
+                Set<Integer> values = new TreeSet<>();
+                for (int v = 0; v < id % 50; ++v) {
+                    values.add(v * 1_000 + id);
+                }
+                Message m = new Message(EchoAck.ECHO, (short) 1, (short) 1, id, id % 7 + 1,
+                        id % 2 == 0 ? PayloadType.PROPOSAL : PayloadType.NACK, values);
+                while (!first.sender.addToSend(m, (short) 2)) {
+                    Thread.sleep(1);
+                }
+                sent.add(m);
+            }
+            await(() -> second.parent.delivered.size() >= sent.size(), () -> {
+            });
+            // retransmissions are not delivered again
+            Thread.sleep(50);
+        } finally {
+            first.stop();
+            second.stop();
+        }
+        assertEquals(sent.size(), second.parent.delivered.size());
+        assertEquals(Set.copyOf(sent), Set.copyOf(second.parent.delivered));
+        assertTrue(first.parent.delivered.isEmpty());
+    }
+
+    @Test
+    public void testBroadcastSerializedOnce() throws IOException, InterruptedException {
+        Map<Short, Host> hosts = loopbackHosts(3);
+        short me = 1;
+        PerfectLink sender = new PerfectLink(me, hosts, config);
+        PlState state = sender.getPlState();
+        PerfectLink receiver = new PerfectLink(me, hosts, new FakeParent(), config, state);
+        Thread receiverThread = start(receiver);
+        BufferPool pool = state.getPlBufferPool();
+        Message m = new Message(EchoAck.ECHO, me, me, 7, 1, PayloadType.PROPOSAL, Set.of(3, 1_000, 42));
+        assertTrue(sender.broadcast(m));
+        MessageToBeSent[] toDest = new MessageToBeSent[hosts.size() + 1];
+        for (MessageToBeSent queued : state.getPlToSend()) {
+            toDest[queued.getDest()] = queued;
+        }
+        assertEquals(null, toDest[me]);
+        // both destinations share the bytes
+        assertSame(toDest[2].getSerializedMsg(), toDest[3].getSerializedMsg());
+        Node second = new Node((short) 2, hosts);
+        Node third = null;
+        try {
+            // host 3 is down, the message is sent to it again
+            await(() -> state.getPlPeers()[2].getAcked().contains(toDest[2].getSeq())
+                    && toDest[3].getTransmissions() > 1, () -> runSender(sender));
+            assertEquals(0, pool.getFree());
+            third = new Node((short) 3, hosts);
+            await(() -> state.getPlPeers()[3].getAcked().contains(toDest[3].getSeq()), () -> runSender(sender));
+            Thread.sleep(50);
+            runSender(sender);
+        } finally {
+            second.stop();
+            if (third != null) {
+                third.stop();
+            }
+            stop(receiverThread, receiver);
+            sender.close();
+        }
+        // given back once, after the last acknowledgement
+        assertEquals(1, pool.getFree());
+        assertFalse(toDest[2].getSerializedMsg().retain());
+        assertEquals(List.of(m), second.parent.delivered);
+        assertEquals(List.of(m), third.parent.delivered);
+    }
 }
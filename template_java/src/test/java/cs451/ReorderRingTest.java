@@ -0,0 +1,69 @@
+package cs451;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import cs451.Idle.IdleStrategy;
+import cs451.Idle.IdleStrategyType;
+import cs451.Messages.ReorderRing;
+
+public class ReorderRingTest {
+
+    @Test
+    public void testDrainsInOrder() {
+        ReorderRing<Integer> ring = new ReorderRing<>(4, IdleStrategyType.BUSY_SPIN.create());
+        List<Integer> drained = new ArrayList<>();
+        assertTrue(ring.offer(2, 2));
+        assertTrue(ring.offer(1, 1));
+        assertEquals(0, ring.drain(drained::add));
+        assertTrue(ring.offer(0, 0));
+        // every contiguous value in one pass
+        assertEquals(3, ring.drain(drained::add));
+        assertEquals(List.of(0, 1, 2), drained);
+        assertEquals(3, ring.getHead());
+        assertFalse(ring.offer(1, 1));
+    }
+
+    @Test
+    public void testOverflow() {
+        ReorderRing<Integer> ring = new ReorderRing<>(4, IdleStrategyType.BUSY_SPIN.create());
+        List<Integer> drained = new ArrayList<>();
+        for (int i = 9; i >= 0; --i) {
+            assertTrue(ring.offer(i, i));
+        }
+        assertEquals(10, ring.drain(drained::add));
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), drained);
+    }
+
+    @Test(timeout = 10_000)
+    public void testWakesConsumer() throws InterruptedException {
+        IdleStrategy idle = IdleStrategyType.PARK.create();
+        ReorderRing<Integer> ring = new ReorderRing<>(16, idle);
+        int nbValues = 10_000;
+        Thread producer = new Thread(() -> {
+            // offered by pairs out of order
+            for (int i = 0; i < nbValues; i += 2) {
+                ring.offer(i + 1, i + 1);
+                ring.offer(i, i);
+            }
+        });
+        producer.start();
+        List<Integer> drained = new ArrayList<>();
+        while (drained.size() < nbValues) {
+            if (ring.drain(drained::add) == 0) {
+                // far longer than the test if the consumer was not signalled
+                idle.idle(Long.MAX_VALUE);
+            }
+        }
+        producer.join();
+        for (int i = 0; i < nbValues; ++i) {
+            assertEquals(i, (int) drained.get(i));
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package cs451;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import cs451.States.RttEstimator;
+
+public class RttEstimatorTest {
+
+    @Test
+    public void testInitialTimeout() {
+        RttEstimator rtt = new RttEstimator();
+        assertEquals(Constants.PL_TIMEOUT_BEFORE_RESEND, rtt.getRto(1));
+    }
+
+    @Test
+    public void testFollowsSamples() {
+        RttEstimator rtt = new RttEstimator();
+        for (int i = 0; i < 50; ++i) {
+            rtt.sample(30_000_000L);
+        }
+        // the variance vanishes with constant samples
+        assertEquals(30, rtt.getRto(1));
+        for (int i = 0; i < 50; ++i) {
+            rtt.sample(100_000L);
+        }
+        // the timeout comes back down once samples improve
+        assertEquals(Constants.PL_MIN_RTO, rtt.getRto(1));
+    }
+
+    @Test
+    public void testCappedBackoff() {
+        RttEstimator rtt = new RttEstimator();
+        for (int i = 0; i < 50; ++i) {
+            rtt.sample(10_000_000L);
+        }
+        assertEquals(10, rtt.getRto(1));
+        assertEquals(20, rtt.getRto(2));
+        assertEquals(40, rtt.getRto(3));
+        assertEquals(Constants.PL_MAX_RTO, rtt.getRto(30));
+        assertTrue(rtt.getRto(1000) <= Constants.PL_MAX_RTO);
+    }
+}
@@ -0,0 +1,79 @@
+package cs451;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import cs451.Messages.SeqWindow;
+
+public class SeqWindowTest {
+
+    @Test
+    public void testAddAndAdvance() {
+        SeqWindow window = new SeqWindow(128);
+        assertTrue(window.add(1));
+        assertTrue(window.add(2));
+        assertEquals(0, window.getLow());
+        assertFalse(window.contains(0));
+        assertTrue(window.contains(2));
+        assertTrue(window.add(0));
+        assertEquals(3, window.getLow());
+        assertFalse(window.add(1));
+        assertTrue(window.contains(1));
+    }
+
+    @Test
+    public void testBeyondWindow() {
+        SeqWindow window = new SeqWindow(64);
+        assertFalse(window.inWindow(64));
+        assertFalse(window.add(64));
+        assertFalse(window.contains(64));
+        assertTrue(window.add(63));
+        for (int seq = 0; seq < 63; ++seq) {
+            assertTrue(window.add(seq));
+        }
+        assertEquals(64, window.getLow());
+        // the bitmap wraps around once the low watermark moved
+        assertTrue(window.add(127));
+        assertTrue(window.contains(127));
+        assertFalse(window.contains(65));
+    }
+
+    @Test
+    public void testWriteAndAddFrom() {
+        SeqWindow received = new SeqWindow(256);
+        SeqWindow acked = new SeqWindow(256);
+        for (int seq = 0; seq < 100; ++seq) {
+            received.add(seq);
+        }
+        received.add(101);
+        received.add(170);
+        received.add(255);
+        ByteBuffer frame = ByteBuffer.allocate(received.maxWrittenSize());
+        received.writeTo(frame);
+        frame.flip();
+        acked.addFrom(frame);
+        assertEquals(0, frame.remaining());
+        assertEquals(100, acked.getLow());
+        assertTrue(acked.contains(42));
+        assertFalse(acked.contains(100));
+        assertTrue(acked.contains(101));
+        assertFalse(acked.contains(102));
+        assertTrue(acked.contains(170));
+        assertTrue(acked.contains(255));
+
+        // an older window does not move the watermark back
+        SeqWindow old = new SeqWindow(256);
+        old.add(0);
+        frame.clear();
+        old.writeTo(frame);
+        frame.flip();
+        acked.addFrom(frame);
+        assertEquals(100, acked.getLow());
+        assertTrue(acked.contains(170));
+    }
+}
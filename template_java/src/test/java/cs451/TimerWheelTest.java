@@ -0,0 +1,75 @@
+package cs451;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import cs451.Messages.Message;
+import cs451.Messages.MessageToBeSent;
+import cs451.Messages.TimerWheel;
+import cs451.Messages.Message.EchoAck;
+import cs451.Messages.Message.PayloadType;
+
+public class TimerWheelTest {
+
+    private MessageToBeSent scheduled(TimerWheel wheel, int agreementId, long timeOfSending, long timeout) {
+        MessageToBeSent m = new Message(EchoAck.ECHO, (short) 1, (short) 1, agreementId, 1, PayloadType.DECIDED,
+                null).toSendTo((short) 2, false);
+        m.setTimeOfSending(timeOfSending);
+        m.setTimeout(timeout);
+        wheel.schedule(m);
+        return m;
+    }
+
+    @Test
+    public void testExpireOnlyDue() {
+        TimerWheel wheel = new TimerWheel(1000, 0);
+        MessageToBeSent m1 = scheduled(wheel, 1, 0, 10);
+        MessageToBeSent m2 = scheduled(wheel, 2, 0, 20);
+        MessageToBeSent m3 = scheduled(wheel, 3, 5, 5);
+        assertEquals(11, wheel.nextDeadline());
+        List<MessageToBeSent> expired = new ArrayList<>();
+        wheel.expire(10, expired);
+        assertTrue(expired.isEmpty());
+        wheel.expire(11, expired);
+        assertEquals(List.of(m3, m1), expired);
+        assertEquals(21, wheel.nextDeadline());
+        expired.clear();
+        wheel.expire(500, expired);
+        assertEquals(List.of(m2), expired);
+        assertEquals(Long.MAX_VALUE, wheel.nextDeadline());
+    }
+
+    @Test
+    public void testCancel() {
+        TimerWheel wheel = new TimerWheel(1000, 0);
+        MessageToBeSent m1 = scheduled(wheel, 1, 0, 10);
+        MessageToBeSent m2 = scheduled(wheel, 2, 0, 10);
+        assertTrue(wheel.cancel(m1));
+        assertFalse(wheel.cancel(m1));
+        assertEquals(1, wheel.size());
+        List<MessageToBeSent> expired = new ArrayList<>();
+        wheel.expire(100, expired);
+        assertEquals(List.of(m2), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testWrapAround() {
+        TimerWheel wheel = new TimerWheel(1000, 0);
+        List<MessageToBeSent> expired = new ArrayList<>();
+        wheel.expire(5000, expired);
+        MessageToBeSent m = scheduled(wheel, 1, 5000, 1000);
+        assertEquals(6001, wheel.nextDeadline());
+        wheel.expire(6000, expired);
+        assertTrue(expired.isEmpty());
+        // a stalled sender still finds every due message
+        wheel.expire(100_000, expired);
+        assertEquals(List.of(m), expired);
+    }
+}
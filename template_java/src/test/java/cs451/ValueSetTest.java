@@ -0,0 +1,111 @@
+package cs451;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import cs451.Messages.ValueSet;
+
+public class ValueSetTest {
+
+    @Test
+    public void testLikeHashSet() {
+        Random random = new Random(451);
+        // the second domain puts most values outside of the bitset
+        for (int domain : List.of(ValueSet.DEFAULT_DOMAIN, 100)) {
+            ValueSet.Builder builder = new ValueSet.Builder(domain);
+            Set<Integer> expected = new HashSet<>();
+            for (int i = 0; i < 2_000; ++i) {
+                int v = random.nextInt(10_000) - 10;
+                builder.add(v);
+                expected.add(v);
+            }
+            ValueSet set = builder.build();
+            assertEquals(expected, set);
+            assertEquals(set, expected);
+            assertEquals(expected.hashCode(), set.hashCode());
+            for (int v = -20; v < 10_100; ++v) {
+                assertEquals(expected.contains(v), set.contains(v));
+            }
+            assertEquals(new ArrayList<>(new TreeSet<>(expected)), new ArrayList<>(set));
+        }
+    }
+
+    @Test
+    public void testUnionAndMinus() {
+        Random random = new Random(42);
+        for (int domain : List.of(1 << 14, 50)) {
+            for (int round = 0; round < 100; ++round) {
+                Set<Integer> expectedA = new HashSet<>();
+                Set<Integer> expectedB = new HashSet<>();
+                for (int i = 0; i < 40; ++i) {
+                    int v = random.nextInt(1 << 15) - 100;
+                    expectedA.add(v);
+                    if (random.nextBoolean()) {
+                        expectedB.add(v);
+                    }
+                }
+                expectedB.add(random.nextInt(1 << 15));
+                ValueSet a = ValueSet.of(expectedA, domain);
+                ValueSet b = ValueSet.of(expectedB, domain);
+                assertEquals(expectedA.containsAll(expectedB), a.containsAll(b));
+                assertEquals(expectedB.containsAll(expectedA), b.containsAll(a));
+
+                Set<Integer> difference = new HashSet<>(expectedA);
+                difference.removeAll(expectedB);
+                assertEquals(difference, a.minus(b));
+
+                Set<Integer> union = new HashSet<>(expectedA);
+                union.addAll(expectedB);
+                ValueSet unionSet = a.union(b);
+                assertEquals(union, unionSet);
+                assertEquals(union.size(), unionSet.size());
+                assertTrue(unionSet.containsAll(a) && unionSet.containsAll(b));
+                // the operands are left unchanged
+                assertEquals(expectedA, a);
+                assertEquals(expectedB, b);
+            }
+        }
+    }
+
+    @Test
+    public void testSharing() {
+        ValueSet set = ValueSet.of(Set.of(1, 5, 64, 200), ValueSet.DEFAULT_DOMAIN);
+        assertSame(set, ValueSet.of(set, ValueSet.DEFAULT_DOMAIN));
+        assertSame(set, set.union(ValueSet.of(Set.of(5, 64), ValueSet.DEFAULT_DOMAIN)));
+        assertSame(set, set.union(ValueSet.EMPTY));
+        assertSame(set, ValueSet.EMPTY.union(set));
+        assertSame(set, set.minus(ValueSet.EMPTY));
+        assertTrue(set.minus(set).isEmpty());
+    }
+
+    @Test
+    public void testMixedRepresentations() {
+        ValueSet bitset = ValueSet.of(Set.of(1, 5, 64, 200));
+        ValueSet outliers = ValueSet.of(Set.of(-3, 5, 200, 5000), 100);
+        assertFalse(bitset.containsAll(outliers));
+        ValueSet union = bitset.union(outliers);
+        assertArrayEquals(new int[] { -3, 1, 5, 64, 200, 5000 }, union.toSortedArray());
+        assertTrue(union.containsAll(outliers));
+        assertEquals(Set.of(1, 64), union.minus(outliers));
+        assertEquals(Set.of(-3, 5000), outliers.minus(bitset));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBuilderSingleUse() {
+        ValueSet.Builder builder = new ValueSet.Builder(ValueSet.DEFAULT_DOMAIN).add(1);
+        builder.build();
+        builder.add(2);
+    }
+}
@@ -0,0 +1,56 @@
+package cs451;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import cs451.States.WindowController;
+
+public class WindowControllerTest {
+
+    @Test
+    public void testGrowsWhileHealthy() {
+        WindowController window = new WindowController(8, 16);
+        assertEquals(8, window.getSize());
+        // about a whole window of fast decisions grows it by one
+        for (int i = 0; i < 9; ++i) {
+            window.decided(1_000);
+        }
+        assertEquals(9, window.getSize());
+        for (int i = 0; i < 1_000; ++i) {
+            window.decided(1_000);
+        }
+        assertEquals(16, window.getSize());
+    }
+
+    @Test
+    public void testShrinksOncePerWindowOnSlowDecisions() {
+        WindowController window = new WindowController(2, 64);
+        for (int i = 0; i < 10_000; ++i) {
+            window.decided(1_000);
+        }
+        assertEquals(64, window.getSize());
+        window.decided(1_000_000);
+        assertEquals(32, window.getSize());
+        // the decisions proposed before the decrease do not shrink it again
+        for (int i = 0; i < 31; ++i) {
+            window.decided(1_000_000);
+        }
+        assertEquals(32, window.getSize());
+        window.decided(1_000_000);
+        assertEquals(16, window.getSize());
+    }
+
+    @Test
+    public void testShrinksOnRetransmissions() {
+        WindowController window = new WindowController(4, 64);
+        for (int i = 0; i < 10_000; ++i) {
+            window.decided(1_000);
+        }
+        for (int i = 0; i < Constants.LATTICE_WINDOW_MIN_SAMPLE; ++i) {
+            window.transmitted(i % 2 == 0);
+        }
+        window.decided(1_000);
+        assertEquals(32, window.getSize());
+    }
+}